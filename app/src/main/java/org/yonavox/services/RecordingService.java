@@ -19,9 +19,11 @@ public class RecordingService extends Service {
     private static AudioRecord audioRecorder;
     private static final String MESSAGE_CHANNEL_ID = "Recording Channel";
     private static final int SERVICE_MESSAGE_ID = 42;
-    private static final int BUFFER_SIZE = AudioRecord.getMinBufferSize(Constants.SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_FLOAT);
-    private static final float[] cyclicPcmData = new float[Constants.DOWNSAMPLE_COEFFICIENT * Constants.SPECTROGRAM_TIMESTAMPS]; //That's about 2.25 seconds worth of audio
+    private static final int BUFFER_SIZE = AudioRecord.getMinBufferSize(Constants.SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+    private static final short[] cyclicPcmData = new short[Constants.DOWNSAMPLE_COEFFICIENT * Constants.SPECTROGRAM_TIMESTAMPS]; //That's about 2.25 seconds worth of audio, in 16 bit samples (half the memory of floats)
+    private static final Object recordingLock = new Object(); //guards cyclicPcmData, cyclicIdx and samplesRecorded, which the recorder thread writes while other threads snapshot them
     private static int cyclicIdx = 0;
+    private static long samplesRecorded = 0; //the total number of samples recorded since the app started (i.e. the stream position of the next sample)
 
     private static int loudSamples = 0;
     private static int silentSamples = 0;
@@ -35,7 +37,7 @@ public class RecordingService extends Service {
                 MediaRecorder.AudioSource.VOICE_COMMUNICATION,
                 Constants.SAMPLE_RATE,
                 AudioFormat.CHANNEL_IN_MONO,
-                AudioFormat.ENCODING_PCM_FLOAT,
+                AudioFormat.ENCODING_PCM_16BIT,
                 BUFFER_SIZE
         );
 
@@ -94,24 +96,35 @@ public class RecordingService extends Service {
     }
 
     //Stores the latest signals from the device microphone in cyclicPcmData
-    //When out of space, overrides previously recorded floats
+    //When out of space, overrides previously recorded samples
     private static void readAudio(AudioRecord audioRecorder){
-        float[] buffer = new float[(int) Math.ceil(0.25 * BUFFER_SIZE)]; //getMinBufferSize() returns the minimum buffer size in bytes; Each float is represented using 4 bytes
+        short[] buffer = new short[(int) Math.ceil(0.5 * BUFFER_SIZE)]; //getMinBufferSize() returns the minimum buffer size in bytes; Each sample is represented using 2 bytes
         while(audioRecorder.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING){
-            int floatsRead = audioRecorder.read(buffer, 0, 256, AudioRecord.READ_NON_BLOCKING);
+            int samplesRead = audioRecorder.read(buffer, 0, 256, AudioRecord.READ_NON_BLOCKING);
+
+            //Write each new sample to the cyclic buffer, snapshotting the recording as soon as an utterance ends
+            Recording utterance = null;
+            synchronized (recordingLock) {
+                for (int i = 0; i < samplesRead; i++) {
+                    cyclicPcmData[cyclicIdx] = buffer[i];
+                    cyclicIdx = (cyclicIdx + 1) % cyclicPcmData.length;
+                    samplesRecorded++;
+                    if(handleRecordedFloat(buffer[i] * Constants.PCM_16BIT_SCALE, i)){
+                        utterance = getRecording();
+                    }
+                }
+            }
 
-            //Write each new float to the cyclic buffer
-            for (int i = 0; i < floatsRead; i++) {
-                cyclicPcmData[cyclicIdx] = buffer[i];
-                cyclicIdx = (cyclicIdx + 1) % cyclicPcmData.length;
-                handleRecordedFloat(buffer[i], i);
+            //The transcription service is started outside the lock, so snapshots taken by other threads never wait on it
+            if(utterance != null){
+                invokeTranscription(utterance);
             }
         }
     }
 
     /*Every recorded float is factored in a calculation determining if speech was detected.
-    * When done speaking, pass the raw data to the transcription service.*/
-    private static void handleRecordedFloat(float recordedFloat, int currentIdx){
+    * Returns true when done speaking, in which case the raw data should be passed to the transcription service.*/
+    private static boolean handleRecordedFloat(float recordedFloat, int currentIdx){
         //Check if the new float is a significant utterance (by amplitude)
         if(recordedFloat < -Constants.SPEECH_AMPLITUDE || Constants.SPEECH_AMPLITUDE < recordedFloat){
             currentlySpeaking = true;
@@ -125,7 +138,7 @@ public class RecordingService extends Service {
         //Decrement counters for samples outside the silence window
         if(trackedSamples > Constants.SILENCE_WINDOW_SIZE) {
             int laggedIndex =  getLaggingIndex(currentIdx, Constants.SILENCE_WINDOW_SIZE);
-            float laggedAmplitude = cyclicPcmData[laggedIndex];
+            float laggedAmplitude = cyclicPcmData[laggedIndex] * Constants.PCM_16BIT_SCALE;
             if(silentSamples > 0 && -Constants.SPEECH_AMPLITUDE <= laggedAmplitude && laggedAmplitude <= Constants.SPEECH_AMPLITUDE){
                 silentSamples--;
             }
@@ -134,7 +147,7 @@ public class RecordingService extends Service {
         //Decrement counters for samples outside the utter window
         if(trackedSamples > Constants.UTTER_WINDOW_SIZE && loudSamples < Constants.MIN_UTTERED_SAMPLES) {
             int laggedIndex =  getLaggingIndex(currentIdx, Constants.UTTER_WINDOW_SIZE);
-            float laggedAmplitude = cyclicPcmData[laggedIndex];
+            float laggedAmplitude = cyclicPcmData[laggedIndex] * Constants.PCM_16BIT_SCALE;
             trackedSamples--;
 
             if(loudSamples > 0 && (laggedAmplitude < -Constants.SPEECH_AMPLITUDE || Constants.SPEECH_AMPLITUDE < laggedAmplitude)){
@@ -146,11 +159,12 @@ public class RecordingService extends Service {
         }
 
         //When enough floats are no longer significant, handle the recorded data
+        boolean speechDetected = false;
         if(silentSamples > Constants.MAX_SILENT_SAMPLES){
             //trigger the preprocessing chain if enough samples were spoken
             if(loudSamples > Constants.MIN_UTTERED_SAMPLES){
                 System.out.println("Speech detected!");
-                invokeTranscription();
+                speechDetected = true;
             }
 
             //reset significance counters
@@ -159,6 +173,8 @@ public class RecordingService extends Service {
             trackedSamples = 0;
             currentlySpeaking = false;
         }
+
+        return speechDetected;
     }
 
     //Returns (currentIdx - lag) mod cyclicPcmData.length
@@ -171,19 +187,27 @@ public class RecordingService extends Service {
         return laggedIndex;
     }
 
-    //Returns the data from the cyclic array in sequential form (i.e. time-ordered)
-    public static float[] getRecordingData() {
-        float[] copyOfData = new float[cyclicPcmData.length];
-        System.arraycopy(cyclicPcmData, cyclicIdx, copyOfData, 0, cyclicPcmData.length - cyclicIdx);
-        System.arraycopy(cyclicPcmData, 0, copyOfData, cyclicPcmData.length - cyclicIdx, cyclicIdx);
-        return copyOfData;
+    //Returns the data from the cyclic array in sequential form (i.e. time-ordered), along with the stream position of its first sample
+    //Both are read under the recording lock, so the position always describes the copied samples (whichever thread takes the snapshot)
+    public static Recording getRecording() {
+        synchronized (recordingLock) {
+            short[] copyOfData = new short[cyclicPcmData.length];
+            System.arraycopy(cyclicPcmData, cyclicIdx, copyOfData, 0, cyclicPcmData.length - cyclicIdx);
+            System.arraycopy(cyclicPcmData, 0, copyOfData, cyclicPcmData.length - cyclicIdx, cyclicIdx);
+            return new Recording(copyOfData, samplesRecorded - cyclicPcmData.length);
+        }
     }
 
     //Passes the current sound recording to the transcription service
     public static void invokeTranscription(){
-        float[] latestPcmData = getRecordingData();
+        invokeTranscription(getRecording());
+    }
+
+    //Passes a sound recording (and its position in the stream, so overlapping recordings can share computed frames) to the transcription service
+    private static void invokeTranscription(Recording recording){
         Intent transcriptionIntent = new Intent(appContext, TranscriptionService.class);
-        transcriptionIntent.putExtra(Constants.RAW_PCM_DATA, latestPcmData);
+        transcriptionIntent.putExtra(Constants.RAW_PCM_DATA, recording.getData());
+        transcriptionIntent.putExtra(Constants.RAW_PCM_OFFSET, recording.getOffset());
         appContext.startService(transcriptionIntent);
     }
 
@@ -191,4 +215,23 @@ public class RecordingService extends Service {
     public static int getBufferSize() {
         return BUFFER_SIZE;
     }
+
+    //A snapshot of the cyclic buffer, and the stream position of its first sample
+    public static final class Recording {
+        private final short[] data;
+        private final long offset;
+
+        private Recording(short[] data, long offset) {
+            this.data = data;
+            this.offset = offset;
+        }
+
+        public short[] getData() {
+            return data;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+    }
 }
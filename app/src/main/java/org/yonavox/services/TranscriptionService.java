@@ -8,13 +8,17 @@ import androidx.annotation.Nullable;
 import org.pytorch.IValue;
 import org.pytorch.Module;
 import org.pytorch.Tensor;
+import org.yonavox.transforms.FeatureCache;
+import org.yonavox.transforms.PreprocessingConfig;
+import org.yonavox.transforms.PreprocessingPipeline;
 import org.yonavox.util.ArrayUtils;
 import org.yonavox.util.Constants;
-import org.yonavox.util.PreprocessUtils;
+import org.yonavox.util.FloatMatrix;
+import org.yonavox.util.LatencyHistogram;
+import org.yonavox.util.MetricsRegistry;
 import org.yonavox.util.SensiboUtils;
 
 import java.io.*;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.StringJoiner;
@@ -22,12 +26,16 @@ import java.util.StringJoiner;
 public class TranscriptionService extends Service {
     private Module voxEncoder;
     private Module voxDecoder;
+    private PreprocessingPipeline preprocessingPipeline;
+    private FeatureCache featureCache;
+    private MetricsRegistry metrics;
 
     private Map<String, Long> syllableToToken;
     private Map<Long, String> tokenToSyllable;
 
     @Override
     public void onCreate(){
+        super.onCreate();
         try {
             voxEncoder = Module.load(assetFilePath(this, "vox_encoder.pt"));
             voxDecoder = Module.load(assetFilePath(this, "vox_decoder.pt"));
@@ -36,9 +44,19 @@ public class TranscriptionService extends Service {
             throw new RuntimeException(e);
         }
 
+        metrics = MetricsRegistry.getGlobal();
+        preprocessingPipeline = PreprocessingPipeline.build(PreprocessingConfig.getDefault(), null, metrics);
+        featureCache = FeatureCache.build(Constants.CACHED_RECORDINGS, metrics);
         populateTokenMaps();
     }
 
+    @Override
+    public void onDestroy(){
+        preprocessingPipeline.shutdown();
+        System.out.println("Transcription metrics:\n" + metrics.dump());
+        super.onDestroy();
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Thread transcriptionThread = new Thread(() -> actOnIntent(intent));
@@ -55,21 +73,33 @@ public class TranscriptionService extends Service {
 
     //Transcribe the raw pcm data, invoking the sensor if anything meaningful was said
     private void actOnIntent(Intent intent){
-        float[] pcmData = intent.getFloatArrayExtra(Constants.RAW_PCM_DATA);
-        String transcription = transcribe(pcmData);
+        short[] pcmData = intent.getShortArrayExtra(Constants.RAW_PCM_DATA);
+        long pcmOffset = intent.getLongExtra(Constants.RAW_PCM_OFFSET, -1);
+        long start = System.nanoTime();
+        String transcription = transcribe(pcmData, pcmOffset);
+        metrics.histogram(MetricsRegistry.TRANSCRIBE).recordSince(start);
+
+        long sensorStart = System.nanoTime();
         invokeSensor(transcription);
+        metrics.histogram(MetricsRegistry.SENSOR).recordSince(sensorStart);
+
+        if(metrics.histogram(MetricsRegistry.TRANSCRIBE).getCount() % Constants.METRICS_DUMP_INTERVAL == 0){
+            System.out.println("Transcription metrics:\n" + metrics.dump());
+        }
     }
 
     //Converts speech to text; The core of the entire app.
-    private String transcribe(float[] pcmData){
-        float[][] spectrogram = PreprocessUtils.preprocess(pcmData);
-        long startTime = new Date().getTime();
+    private String transcribe(short[] pcmData, long pcmOffset){
+        //Transcribing the same snapshot again (e.g. while nothing new was recorded) reuses its features
+        FloatMatrix spectrogram = featureCache.get(pcmData, pcmOffset, () -> preprocessingPipeline.preprocess(pcmData, pcmOffset));
+        long encoderStart = System.nanoTime();
         long[] tensorShape = getDimensions(spectrogram);
 
-        float[] flatSpectro = ArrayUtils.concat(spectrogram);
-        IValue spectroTensor = IValue.from(Tensor.fromBlob(flatSpectro, tensorShape));
-        //IValue spectroTensor = IValue.from(Tensor.fromBlob(new float[(int)(138 * 80)], tensorShape));
+        //The spectrogram is already stored row-major in a single array, which is exactly the layout of the input tensor (no flattening copy)
+        //It always has PreprocessingPipeline.getHopCount(pcmData.length) rows, even if aligning the snapshot to the stream dropped its last column
+        IValue spectroTensor = IValue.from(Tensor.fromBlob(spectrogram.getContiguousData(), tensorShape));
         IValue[] encoderResults = voxEncoder.forward(spectroTensor).toTuple();
+        metrics.histogram(MetricsRegistry.ENCODER).recordSince(encoderStart);
 
         IValue encoderOutput = encoderResults[0];
         IValue hiddenState = encoderResults[1];
@@ -80,13 +110,16 @@ public class TranscriptionService extends Service {
 
         int maxDecoderRounds = 20;
         StringJoiner predictedSyllables = new StringJoiner(" ", "", "");
+        LatencyHistogram decoderStepLatency = metrics.histogram(MetricsRegistry.DECODER_STEP);
         for(int i=0; i<maxDecoderRounds; i++){
+            long stepStart = System.nanoTime();
             IValue[] decoderResults = voxDecoder.forward(encoderOutput, hiddenState, inputTokens).toTuple();
             IValue outputLogits = decoderResults[0];
             hiddenState = decoderResults[1];
 
             float[] logitArray = outputLogits.toTensor().getDataAsFloatArray();
             int predictedToken = ArrayUtils.indexOfMax(logitArray);
+            decoderStepLatency.recordSince(stepStart);
 
             String predictedSyllable = tokenToSyllable.get((long)predictedToken).toLowerCase();
             if(predictedSyllable.equals("end")){
@@ -103,17 +136,15 @@ public class TranscriptionService extends Service {
             }
         }
 
-        long endTime = new Date().getTime();
-        System.out.println("Phoneme prediction took " + (endTime - startTime) + " ms");
         return predictedSyllables.toString();
     }
 
     //Create a shape array based on the dimensions of the given spectrogram
-    private long[] getDimensions(float[][] spectrogram){
+    private long[] getDimensions(FloatMatrix spectrogram){
         long dim0 = 1; //Batch dimension
         long dim1 = 1; //Channel dimension
-        long dim2 = spectrogram.length; //Spectrogram height
-        long dim3 = spectrogram[0].length; //spectrogram width
+        long dim2 = spectrogram.getRows(); //Spectrogram height
+        long dim3 = spectrogram.getCols(); //spectrogram width
         return new long[]{dim0, dim1, dim2, dim3};
     }
 
@@ -0,0 +1,144 @@
+package org.yonavox.transforms;
+
+import org.yonavox.util.FloatMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/* Preprocesses entire corpora of recordings (e.g. for offline evaluation), spreading whole clips across all cores
+ * Every worker owns its own PreprocessingPipeline, so clips never wait on each other's filter state.
+ * The spectrogram frames of all workers run on a single shared ForkJoinPool, which keeps the cores busy while some clips are still being filtered.
+ * Every clip goes through PreprocessingPipeline.preprocess(), so the workers record their stage latencies into the global metrics registry*/
+public class BatchPreprocessor {
+    private final BlockingQueue<PreprocessingPipeline> workerPool; //one worker per clip thread, so borrowing never blocks
+    private final ExecutorService clipThreads;
+    private final ForkJoinPool frameThreads;
+    private final int threadCount;
+
+    private BatchPreprocessor(PreprocessingConfig config, int threadCount){
+        this.threadCount = threadCount;
+        this.clipThreads = Executors.newFixedThreadPool(threadCount);
+        this.frameThreads = new ForkJoinPool(threadCount);
+        this.workerPool = new ArrayBlockingQueue<>(threadCount);
+
+        //Clips of a corpus are unrelated, so workers never cache columns
+        PreprocessingConfig workerConfig = PreprocessingConfig.build(
+            config.getSampleRate(),
+            config.getDownsampleCoefficient(),
+            config.getFrameLength(),
+            config.getHopLength(),
+            config.getMelBins(),
+            config.getMaxClipLength(),
+            config.getFastLogBits(),
+            0
+        );
+        for(int workerId=0; workerId<threadCount; workerId++){
+            workerPool.add(PreprocessingPipeline.build(workerConfig, frameThreads));
+        }
+    }
+
+    //Accepts clips of up to the length of a recording, using the default config and a thread for every available core
+    public static BatchPreprocessor build(){
+        return build(PreprocessingConfig.getDefault(), Runtime.getRuntime().availableProcessors());
+    }
+
+    //Accepts clips of any length up to maxClipLength (in raw samples), processing up to threadCount clips at a time with the default config
+    public static BatchPreprocessor build(int threadCount, int maxClipLength){
+        PreprocessingConfig config = PreprocessingConfig.getDefault();
+        return build(PreprocessingConfig.build(
+            config.getSampleRate(),
+            config.getDownsampleCoefficient(),
+            config.getFrameLength(),
+            config.getHopLength(),
+            config.getMelBins(),
+            maxClipLength,
+            config.getFastLogBits(),
+            0
+        ), threadCount);
+    }
+
+    //Accepts clips of up to config.getMaxClipLength() raw samples, processing up to threadCount clips at a time
+    public static BatchPreprocessor build(PreprocessingConfig config, int threadCount){
+        if(threadCount < 1){
+            throw new IllegalArgumentException("A batch preprocessor requires at least one thread, got " + threadCount);
+        }
+
+        return new BatchPreprocessor(config, threadCount);
+    }
+
+    public int getThreadCount(){
+        return threadCount;
+    }
+
+    //Converts every raw PCM clip to its log-mel spectrogram (as returned by PreprocessingPipeline.preprocess), keeping the order of the clips
+    public BatchResult process(List<float[]> clips){
+        long start = System.nanoTime();
+        List<Future<FloatMatrix>> pending = new ArrayList<>(clips.size());
+        for(float[] clip : clips){
+            pending.add(clipThreads.submit(() -> processClip(clip)));
+        }
+
+        List<FloatMatrix> features = new ArrayList<>(clips.size());
+        try {
+            for(Future<FloatMatrix> future : pending){
+                features.add(future.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            for(Future<FloatMatrix> future : pending){
+                future.cancel(true);
+            }
+            throw new RuntimeException("Failed to preprocess batch of " + clips.size() + " clips", e);
+        }
+
+        return new BatchResult(features, System.nanoTime() - start);
+    }
+
+    //Stops all threads. Calling process() afterwards is not allowed
+    public void shutdown(){
+        clipThreads.shutdown();
+        frameThreads.shutdown();
+    }
+
+    private FloatMatrix processClip(float[] clip){
+        PreprocessingPipeline worker = workerPool.poll();
+        if(worker == null){
+            throw new IllegalStateException("No free worker, although every clip thread owns one");
+        }
+
+        try {
+            return worker.preprocess(clip);
+        } finally {
+            workerPool.offer(worker);
+        }
+    }
+
+    //The log-mel spectrograms of a batch (in the order of the clips), and the time it took to compute them
+    public static final class BatchResult {
+        private final List<FloatMatrix> features;
+        private final long elapsedNanos;
+
+        private BatchResult(List<FloatMatrix> features, long elapsedNanos){
+            this.features = features;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public List<FloatMatrix> getFeatures(){
+            return features;
+        }
+
+        public long getElapsedNanos(){
+            return elapsedNanos;
+        }
+
+        public double getClipsPerSecond(){
+            return elapsedNanos > 0? features.size() * 1e9 / elapsedNanos : 0;
+        }
+    }
+}
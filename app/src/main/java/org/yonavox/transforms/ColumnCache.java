@@ -0,0 +1,108 @@
+package org.yonavox.transforms;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* A bounded cache of spectrogram (or log-mel) columns, keyed by the absolute position of their frame in the recorded stream
+ * Consecutive transcriptions snapshot overlapping stretches of the same recording, so most frames of a new snapshot were already computed for the previous one.
+ * When full, the least recently used column is evicted, and its array is reused for the next column put in the cache.
+ * Thread safe*/
+public class ColumnCache {
+    private final int capacity;
+    private final int columnLength;
+    private final LinkedHashMap<Long, float[]> columns;
+    private final Deque<float[]> spareColumns; //arrays of evicted columns, reused by put()
+
+    private long hits = 0;
+    private long misses = 0;
+
+    private ColumnCache(int capacity, int columnLength){
+        this.capacity = capacity;
+        this.columnLength = columnLength;
+        this.spareColumns = new ArrayDeque<>();
+        this.columns = new LinkedHashMap<Long, float[]>(2 * capacity, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, float[]> eldest) {
+                if(size() > ColumnCache.this.capacity){
+                    spareColumns.push(eldest.getValue());
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    //Holds up to {capacity} columns of {columnLength} floats each
+    public static ColumnCache build(int capacity, int columnLength){
+        if(capacity < 1){
+            throw new IllegalArgumentException("A column cache must hold at least one column, got " + capacity);
+        }
+
+        return new ColumnCache(capacity, columnLength);
+    }
+
+    //Copies the column of the frame starting at the given position into the output, returning false (and leaving the output untouched) if it is not cached
+    public boolean get(long position, float[] output){
+        return get(position, output, 0);
+    }
+
+    //Same as get(position, output), but copies the column into output[outputOffset, outputOffset + columnLength) (e.g. a row of a matrix)
+    public synchronized boolean get(long position, float[] output, int outputOffset){
+        float[] column = columns.get(position);
+        if(column == null){
+            misses++;
+            return false;
+        }
+
+        hits++;
+        System.arraycopy(column, 0, output, outputOffset, columnLength);
+        return true;
+    }
+
+    //Caches a copy of the column of the frame starting at the given position
+    public void put(long position, float[] column){
+        put(position, column, 0);
+    }
+
+    //Same as put(position, column), for the column stored at column[columnOffset, columnOffset + columnLength)
+    public synchronized void put(long position, float[] column, int columnOffset){
+        float[] cached = columns.get(position);
+        if(cached == null){
+            cached = spareColumns.isEmpty()? new float[columnLength] : spareColumns.pop();
+            columns.put(position, cached);
+        }
+
+        System.arraycopy(column, columnOffset, cached, 0, columnLength);
+    }
+
+    //Drops all cached columns (but keeps the hit and miss counters)
+    public synchronized void clear(){
+        spareColumns.addAll(columns.values());
+        columns.clear();
+    }
+
+    public int getCapacity(){
+        return capacity;
+    }
+
+    public synchronized int size(){
+        return columns.size();
+    }
+
+    public synchronized long getHitCount(){
+        return hits;
+    }
+
+    public synchronized long getMissCount(){
+        return misses;
+    }
+
+    //The fraction of lookups answered from the cache (zero before the first lookup)
+    public synchronized float getHitRate(){
+        long lookups = hits + misses;
+        return lookups > 0? (float)hits / lookups : 0;
+    }
+}
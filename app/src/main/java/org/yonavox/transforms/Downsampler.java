@@ -0,0 +1,14 @@
+package org.yonavox.transforms;
+
+/* Anti-aliasing filter and downsampler, turning raw recordings (at SAMPLE_RATE) into the signal the spectrograms are made of (at DOWNSAMPLE_RATE)
+ * The output sample i is the filtered value of input sample i * DOWNSAMPLE_COEFFICIENT, so a signal of length L yields ceil(L / DOWNSAMPLE_COEFFICIENT) samples
+ * Recordings may be either float samples, or 16 bit samples (which are scaled by PCM_16BIT_SCALE while being read by the filter, without a separate conversion pass)*/
+public interface Downsampler {
+    float[] apply(float[] signal);
+
+    //Same as apply(signal), but only filters signal[offset, offset+length)
+    float[] apply(float[] signal, int offset, int length);
+
+    //Same as apply(signal, offset, length), for a 16 bit recording
+    float[] apply(short[] signal, int offset, int length);
+}
@@ -0,0 +1,293 @@
+package org.yonavox.transforms;
+
+import org.yonavox.util.Constants;
+import org.yonavox.util.FloatMatrix;
+import org.yonavox.util.MetricsRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/* A bounded cache of whole log-mel spectrograms, in front of PreprocessingPipeline.preprocess()
+ * Transcriptions invoked again while nothing new was recorded (e.g. the play button pressed during silence) snapshot the very same samples,
+ * so their features are returned from the cache instead of running the whole low-pass/STFT/mel chain again.
+ *
+ * Recordings are keyed by a fingerprint: their stream position range when it is known (the same range of a stream always holds the same samples),
+ * or otherwise a 64 bit hash of every sample (a single multiply-xorshift pass over the PCM data).
+ * Recording never stops, so a later snapshot of the stream never has the exact range of an earlier one, even if nothing was said in between.
+ * So every positioned spectrogram also keeps the stream positions of the first and last samples of its recording louder than SPEECH_AMPLITUDE,
+ * and a positioned snapshot that misses is checked against the latest spectrogram computed for the stream. The latest spectrogram is returned (as a hit)
+ * instead of computing a new one if the snapshot still holds all of its loud samples, and every sample appended since stays within SPEECH_AMPLITUDE.
+ * When full, the least recently used spectrogram is evicted. Every hit adds the time it took to compute the spectrogram to the saved time.
+ * Cached spectrograms are shared by all callers, which must not modify them.
+ * Thread safe, although concurrent misses of the same recording each compute its features*/
+public class FeatureCache {
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final int capacity;
+    private final LinkedHashMap<Fingerprint, CachedFeatures> entries;
+    private final MetricsRegistry metrics;
+    private Fingerprint latest = null; //the positioned recording whose features were computed last (null if none)
+    private CachedFeatures latestFeatures = null;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long savedNanos = 0;
+
+    private FeatureCache(int capacity, MetricsRegistry metrics){
+        this.capacity = capacity;
+        this.metrics = metrics;
+        this.entries = new LinkedHashMap<Fingerprint, CachedFeatures>(2 * capacity, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Fingerprint, CachedFeatures> eldest) {
+                return size() > FeatureCache.this.capacity;
+            }
+        };
+    }
+
+    //Holds the features of up to {capacity} recordings, counting hits, misses and saved time in the global metrics registry
+    public static FeatureCache build(int capacity){
+        return build(capacity, MetricsRegistry.getGlobal());
+    }
+
+    public static FeatureCache build(int capacity, MetricsRegistry metrics){
+        if(capacity < 1){
+            throw new IllegalArgumentException("A feature cache must hold at least one recording, got " + capacity);
+        }
+
+        return new FeatureCache(capacity, metrics);
+    }
+
+    //Returns the cached features of the recording, or computes (and caches) them if the recording was not seen before
+    //rawPcmOffset is the stream position of rawPcmData[0], or -1 if unknown (as in PreprocessingPipeline.preprocess)
+    public FloatMatrix get(short[] rawPcmData, long rawPcmOffset, Supplier<FloatMatrix> preprocessing){
+        if(rawPcmOffset < 0){
+            return get(new Fingerprint(-1, rawPcmData.length, hash(rawPcmData)), null, preprocessing);
+        }
+
+        return get(new Fingerprint(rawPcmOffset, rawPcmData.length, 0), i -> isLoud(rawPcmData[i]), preprocessing);
+    }
+
+    public FloatMatrix get(float[] rawPcmData, long rawPcmOffset, Supplier<FloatMatrix> preprocessing){
+        if(rawPcmOffset < 0){
+            return get(new Fingerprint(-1, rawPcmData.length, hash(rawPcmData)), null, preprocessing);
+        }
+
+        return get(new Fingerprint(rawPcmOffset, rawPcmData.length, 0), i -> isLoud(rawPcmData[i]), preprocessing);
+    }
+
+    //Drops all cached features (but keeps the counters)
+    public synchronized void clear(){
+        entries.clear();
+        latest = null;
+        latestFeatures = null;
+    }
+
+    public int getCapacity(){
+        return capacity;
+    }
+
+    public synchronized int size(){
+        return entries.size();
+    }
+
+    public synchronized long getHitCount(){
+        return hits;
+    }
+
+    public synchronized long getMissCount(){
+        return misses;
+    }
+
+    //The fraction of lookups answered from the cache (zero before the first lookup)
+    public synchronized float getHitRate(){
+        long lookups = hits + misses;
+        return lookups > 0? (float)hits / lookups : 0;
+    }
+
+    //The total time it took to compute the features of every hit, which was not spent again
+    public synchronized long getSavedNanos(){
+        return savedNanos;
+    }
+
+    //A 64 bit hash of the samples, mixing 4 samples at a time
+    static long hash(short[] samples){
+        long hash = samples.length;
+        int i = 0;
+        for(; i+4<=samples.length; i+=4){
+            long block = (samples[i] & 0xffffL) | (samples[i+1] & 0xffffL) << 16 | (samples[i+2] & 0xffffL) << 32 | (samples[i+3] & 0xffffL) << 48;
+            hash = Long.rotateLeft(hash ^ block * HASH_MULTIPLIER, 27) * HASH_MULTIPLIER;
+        }
+        for(; i<samples.length; i++){
+            hash = Long.rotateLeft(hash ^ (samples[i] & 0xffffL) * HASH_MULTIPLIER, 27) * HASH_MULTIPLIER;
+        }
+
+        return hash ^ (hash >>> 31);
+    }
+
+    //Same as hash(short[]), over the bits of float samples (2 samples at a time)
+    static long hash(float[] samples){
+        long hash = samples.length;
+        int i = 0;
+        for(; i+2<=samples.length; i+=2){
+            long block = (Float.floatToIntBits(samples[i]) & 0xffffffffL) | (long)Float.floatToIntBits(samples[i+1]) << 32;
+            hash = Long.rotateLeft(hash ^ block * HASH_MULTIPLIER, 27) * HASH_MULTIPLIER;
+        }
+        if(i < samples.length){
+            hash = Long.rotateLeft(hash ^ (Float.floatToIntBits(samples[i]) & 0xffffffffL) * HASH_MULTIPLIER, 27) * HASH_MULTIPLIER;
+        }
+
+        return hash ^ (hash >>> 31);
+    }
+
+    //Returns true if the sample is louder than the speech amplitude (as RecordingService tells speech apart from silence)
+    static boolean isLoud(short sample){
+        return isLoud(sample * Constants.PCM_16BIT_SCALE);
+    }
+
+    static boolean isLoud(float sample){
+        return sample < -Constants.SPEECH_AMPLITUDE || Constants.SPEECH_AMPLITUDE < sample;
+    }
+
+    //The index of the first loud sample in [from, to), or -1 if all of them are silent
+    private static int indexOfFirstLoud(SpeechDetector speech, int from, int to){
+        for(int i=from; i<to; i++){
+            if(speech.isLoud(i)){
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    //The index of the last loud sample in [from, to), or -1 if all of them are silent
+    private static int indexOfLastLoud(SpeechDetector speech, int from, int to){
+        for(int i=to-1; i>=from; i--){
+            if(speech.isLoud(i)){
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    //speech is null for recordings of unknown position, which only match the exact same samples
+    private FloatMatrix get(Fingerprint fingerprint, SpeechDetector speech, Supplier<FloatMatrix> preprocessing){
+        Fingerprint anchor = null;
+        CachedFeatures anchorFeatures = null;
+        synchronized(this){
+            CachedFeatures cached = entries.get(fingerprint);
+            if(cached != null){
+                return hit(cached);
+            }
+
+            //The snapshot must still hold every loud sample of the latest recording, and must not end before it
+            if(speech != null && latest != null && latest.position <= fingerprint.position && latest.getEnd() <= fingerprint.getEnd()
+                    && fingerprint.position <= latestFeatures.firstLoudPosition && latestFeatures.lastLoudPosition < fingerprint.getEnd()){
+                anchor = latest;
+                anchorFeatures = latestFeatures;
+            }
+        }
+
+        //The appended samples are scanned outside the lock, and the latest features are reused only if they were not evicted meanwhile
+        if(anchor != null && indexOfFirstLoud(speech, (int)(anchor.getEnd() - fingerprint.position), fingerprint.length) < 0){
+            synchronized(this){
+                if(entries.get(anchor) == anchorFeatures){
+                    return hit(anchorFeatures);
+                }
+            }
+        }
+
+        synchronized(this){
+            misses++;
+            metrics.counter(MetricsRegistry.FEATURE_MISSES).increment();
+        }
+
+        //The features are computed outside the lock, so lookups of other recordings are never blocked by preprocessing
+        long start = System.nanoTime();
+        FloatMatrix features = preprocessing.get();
+        long computeNanos = System.nanoTime() - start;
+        CachedFeatures cached;
+        if(speech != null){
+            //A recording without any loud samples holds no utterance, so any later snapshot that only appends silence may reuse it
+            int firstLoud = indexOfFirstLoud(speech, 0, fingerprint.length);
+            int lastLoud = firstLoud < 0? -1 : indexOfLastLoud(speech, firstLoud, fingerprint.length);
+            cached = new CachedFeatures(features, computeNanos, firstLoud < 0? fingerprint.getEnd() : fingerprint.position + firstLoud, fingerprint.position + lastLoud);
+        }else{
+            cached = new CachedFeatures(features, computeNanos, -1, -1);
+        }
+
+        synchronized(this){
+            entries.put(fingerprint, cached);
+            if(speech != null && (latest == null || latest.getEnd() <= fingerprint.getEnd())){
+                latest = fingerprint;
+                latestFeatures = cached;
+            }
+        }
+
+        return features;
+    }
+
+    //Must be called while holding the lock
+    private FloatMatrix hit(CachedFeatures cached){
+        hits++;
+        savedNanos += cached.computeNanos;
+        metrics.counter(MetricsRegistry.FEATURE_HITS).increment();
+        metrics.counter(MetricsRegistry.FEATURE_SAVED_NANOS).add(cached.computeNanos);
+        return cached.features;
+    }
+
+    //Tells whether sample #idx of a recording is loud enough to be speech
+    private interface SpeechDetector {
+        boolean isLoud(int idx);
+    }
+
+    //The stream position range of a recording (with a hash of 0), or its length and hash (with a position of -1)
+    private static final class Fingerprint {
+        private final long position;
+        private final int length;
+        private final long hash;
+
+        private Fingerprint(long position, int length, long hash){
+            this.position = position;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        //The stream position following the last sample of the recording (only meaningful for positioned recordings)
+        private long getEnd(){
+            return position + length;
+        }
+
+        @Override
+        public boolean equals(Object other){
+            if(!(other instanceof Fingerprint)){
+                return false;
+            }
+
+            Fingerprint fingerprint = (Fingerprint)other;
+            return position == fingerprint.position && length == fingerprint.length && hash == fingerprint.hash;
+        }
+
+        @Override
+        public int hashCode(){
+            return Long.hashCode(position * 31 + length) ^ Long.hashCode(hash);
+        }
+    }
+
+    //The loud positions are the stream positions of the first and last loud samples of a positioned recording (both -1 for recordings of unknown position)
+    //A positioned recording without loud samples has its end as the first loud position, and the position before its start as the last one
+    private static final class CachedFeatures {
+        private final FloatMatrix features;
+        private final long computeNanos;
+        private final long firstLoudPosition;
+        private final long lastLoudPosition;
+
+        private CachedFeatures(FloatMatrix features, long computeNanos, long firstLoudPosition, long lastLoudPosition){
+            this.features = features;
+            this.computeNanos = computeNanos;
+            this.firstLoudPosition = firstLoudPosition;
+            this.lastLoudPosition = lastLoudPosition;
+        }
+    }
+}
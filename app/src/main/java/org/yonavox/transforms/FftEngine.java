@@ -0,0 +1,20 @@
+package org.yonavox.transforms;
+
+/* Computes the fast fourier transform of a single frame of complex numbers
+ * Frames are stored as interleaved arrays of 2 * getLength() floats (see ComplexUtils for the interleaved representation)
+ * Engines only hold immutable lookup tables, so a single engine can be shared between all workers of a SpectrogramMaker.
+ * Anything an engine writes to during a transform lives in the scratch buffer, which each worker allocates once via createScratch()*/
+public interface FftEngine {
+    //The number of complex numbers in every frame this engine transforms
+    int getLength();
+
+    //The index order a frame must be shuffled into before calling transform()
+    //i.e. the i'th complex number of the shuffled frame is the getShuffledIndices()[i]'th complex number of the frame
+    int[] getShuffledIndices();
+
+    //Allocates a scratch buffer for a single worker
+    float[] createScratch();
+
+    //Transforms the shuffled frame, replacing its contents with the FFT coefficients (in their natural order)
+    void transform(float[] shuffledFrame, float[] scratch);
+}
@@ -0,0 +1,108 @@
+package org.yonavox.transforms;
+
+import org.yonavox.util.FloatMatrix;
+
+/* Produces log-mel spectrograms straight from the (downsampled) signal, fusing the STFT and the mel-scale conversion
+ * Every spectrogram column is projected onto the mel filters by the thread that computed it, while it is still in that thread's workspace.
+ * The full linear spectrogram (hopCount x frameLength/2 + 1) is never materialized; only the final log-mel output is written to memory.
+ * The result matches MelScaleConverter.convert(SpectrogramMaker.transform(signal)), up to float rounding
+ *
+ * When built with a ColumnCache, signals cut from a continuous stream may be extracted along with their position in that stream.
+ * The (unclipped) log-mel column of every frame is then cached by the absolute position of the frame, and only frames not seen before are computed.
+ * Frames of two signals only line up if their starts are a whole number of hops apart, so callers should cut signals at multiples of the hop length*/
+public class LogMelExtractor {
+    private final SpectrogramMaker spectroMaker;
+    private final MelScaleConverter melScaleConverter;
+    private final SpectrogramMaker.ColumnMapper columnMapper;
+    private final ColumnCache columnCache; //null if columns are never cached
+    private final int firstCachedFrame; //frames before this one read the left reflection (or the unsettled start) of the signal, so they depend on where the signal was cut
+
+    private LogMelExtractor(SpectrogramMaker spectroMaker, MelScaleConverter melScaleConverter, ColumnCache columnCache, int settlingLength) {
+        this.spectroMaker = spectroMaker;
+        this.melScaleConverter = melScaleConverter;
+        this.columnMapper = melScaleConverter::convertColumn;
+        this.columnCache = columnCache;
+
+        int padding = spectroMaker.getFrameLength() / 2;
+        this.firstCachedFrame = (padding + settlingLength + spectroMaker.getHopLength() - 1) / spectroMaker.getHopLength();
+    }
+
+    public static LogMelExtractor build(SpectrogramMaker spectroMaker, MelScaleConverter melScaleConverter){
+        return new LogMelExtractor(spectroMaker, melScaleConverter, null, 0);
+    }
+
+    //The cache must hold columns of melScaleConverter.getBinCount() floats
+    public static LogMelExtractor build(SpectrogramMaker spectroMaker, MelScaleConverter melScaleConverter, ColumnCache columnCache){
+        return build(spectroMaker, melScaleConverter, columnCache, 0);
+    }
+
+    //The first settlingLength samples of every signal depend on where it was cut (e.g. a filter warming up), so frames reading them are never cached
+    public static LogMelExtractor build(SpectrogramMaker spectroMaker, MelScaleConverter melScaleConverter, ColumnCache columnCache, int settlingLength){
+        return new LogMelExtractor(spectroMaker, melScaleConverter, columnCache, settlingLength);
+    }
+
+    public ColumnCache getColumnCache(){
+        return columnCache;
+    }
+
+    //The log-mel spectrogram as a hopCount x numBins matrix, which (being contiguous) is the flat input tensor of the recognition model as-is
+    public FloatMatrix extract(float[] signal){
+        return extract(signal, FloatMatrix.build(spectroMaker.getHopCount(signal.length), melScaleConverter.getBinCount()));
+    }
+
+    //Same as extract(signal), but writes the log-mel spectrogram into the given output (which must be at least getHopCount(signal.length) x numBins)
+    //Only the first getHopCount(signal.length) rows of the output are written (and clipped), so a single output may be reused for signals of any length
+    public FloatMatrix extract(float[] signal, FloatMatrix output){
+        spectroMaker.transform(signal, output, columnMapper);
+        melScaleConverter.clip(output, spectroMaker.getHopCount(signal.length));
+        return output;
+    }
+
+    //Same as extract(signal, output), for an output stored as an array of rows
+    public float[][] extract(float[] signal, float[][] output){
+        spectroMaker.transform(signal, output, columnMapper);
+        melScaleConverter.clip(output, spectroMaker.getHopCount(signal.length));
+        return output;
+    }
+
+    public FloatMatrix extract(float[] signal, long signalStart){
+        return extract(signal, signalStart, FloatMatrix.build(spectroMaker.getHopCount(signal.length), melScaleConverter.getBinCount()));
+    }
+
+    /* Same as extract(signal, output), but signal[0] is sample #signalStart of a continuous stream, and columns are reused from the cache where possible
+     * Columns are cached before clipping, since the clip level depends on the loudest column of every signal.
+     * A negative signalStart (or an extractor without a cache) falls back to extract(signal, output)*/
+    public FloatMatrix extract(float[] signal, long signalStart, FloatMatrix output){
+        if(columnCache == null || signalStart < 0){
+            return extract(signal, output);
+        }
+
+        int hopCount = spectroMaker.getHopCount(signal.length);
+        int hopLength = spectroMaker.getHopLength();
+        long frameOffset = signalStart - spectroMaker.getFrameLength() / 2; //the stream position of the first (padded) sample of frame #0
+
+        //Fill in cached columns, and compute every run of missing frames in a single invocation of the spectrogram maker
+        int missingStart = 0;
+        for(int k=Math.min(firstCachedFrame, hopCount); k<=hopCount; k++){
+            if(k == hopCount || columnCache.get(frameOffset + (long)k * hopLength, output.getData(), output.getRowOffset(k))){
+                computeAndCache(signal, output, missingStart, k, frameOffset);
+                missingStart = k + 1;
+            }
+        }
+
+        melScaleConverter.clip(output, hopCount);
+        return output;
+    }
+
+    //Computes the frames [startFrameIdx, endFrameIdx), caching those that do not depend on where the signal was cut
+    private void computeAndCache(float[] signal, FloatMatrix output, int startFrameIdx, int endFrameIdx, long frameOffset){
+        if(startFrameIdx >= endFrameIdx){
+            return;
+        }
+
+        spectroMaker.transform(signal, output, columnMapper, startFrameIdx, endFrameIdx);
+        for(int k=Math.max(startFrameIdx, firstCachedFrame); k<endFrameIdx; k++){
+            columnCache.put(frameOffset + (long)k * spectroMaker.getHopLength(), output.getData(), output.getRowOffset(k));
+        }
+    }
+}
@@ -4,37 +4,52 @@ import org.yonavox.util.ArrayUtils;
 import org.yonavox.util.ComplexUtils;
 import org.yonavox.util.Constants;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
-public class LowPassFilter {
-    //Filter polynomials
-    private final float denominator_0; //first denominator coefficient
-    private final float denom0_reciprocal;
-    private final float[] denominator_1; //all denominator coefficients except the first
-    private final float[] numerator;
+/* A Butterworth IIR filter, run on every input sample before discarding all but every DOWNSAMPLE_COEFFICIENT-th output
+ * The filter is run as a cascade of second-order sections (biquads), each made of a pair of zeros and a pair of poles (and a first-order section for an odd order).
+ * Unlike a single high-order polynomial, every section only has a few well-conditioned coefficients, which keeps the filter stable in float precision.
+ * Each section runs over the entire signal in turn (transposed direct form II), with its coefficients and state held in local variables
+ *
+ * Besides filtering whole signals, the filter can run as a stream: process() keeps the state of every section (and the downsampling phase) between chunks,
+ * so a recording can be filtered as it arrives. Filtering a signal chunk by chunk produces exactly the same samples as filtering it at once*/
+public class LowPassFilter implements Downsampler {
+    private static final float REAL_ROOT_TOLERANCE = 1e-6f; //roots with a smaller imaginary part are treated as real
+    private static final int MAX_WARMUP_LENGTH = 1 << 16;
 
-    //Pre-allocated arrays
-    private final float[] paddedSignal;
-    private final float[] output;
-    private final float[] signalSlice;
-    private final float[] outputSlice;
+    //Filter sections, 5 coefficients per section: b0, b1, b2, a1, a2, where H(z) = (b0 + b1*z^-1 + b2*z^-2) / (1 + a1*z^-1 + a2*z^-2)
+    private final float[] sections;
+    private final int sectionCount;
+
+    //Pre-allocated arrays, fitting signals of up to maxSignalLength samples
+    private final int maxSignalLength;
+    private final float[] output; //the output of every section but the last
+    private final float[] signalState; //the state of every section while filtering a whole signal (always starting at rest)
+
+    //Streaming state
+    private final float[] streamState; //z1 and z2 of every section, carried over between chunks
+    private int streamSkip = 0; //the number of samples to skip before the next sample kept after downsampling
 
-    //The polynomials are flipped for faster real-time convolutions (this is a deviation from the text-book implementation, but is faster)
     //For most use cases, it is better to invoke LowPassFilter.build();
-    private LowPassFilter(float[] numerator, float[] denominator) {
-        this.denominator_0 = denominator[0];
-        this.denom0_reciprocal = denominator_0 != 0? 1 / denominator_0 : 1000000000000f;
-        this.denominator_1 = ArrayUtils.flip(Arrays.copyOfRange(denominator, 1, denominator.length));
-        this.numerator = ArrayUtils.flip(numerator);
+    private LowPassFilter(float[] sections, int maxSignalLength) {
+        this.sections = sections;
+        this.sectionCount = sections.length / 5;
 
-        this.paddedSignal = new float[Constants.DOWNSAMPLE_COEFFICIENT * Constants.SAMPLE_RATE + numerator.length - 1];
-        this.output = new float[paddedSignal.length];
-        this.signalSlice = new float[numerator.length];
-        this.outputSlice = new float[numerator.length - 1];
+        this.maxSignalLength = maxSignalLength;
+        this.output = new float[maxSignalLength];
+        this.signalState = new float[2 * sectionCount];
+        this.streamState = new float[2 * sectionCount];
     }
 
-    //Create a new low pass filter. Each step is explained in the annotations above the function declaration for that step
+    //Create a new low pass filter, accepting signals of up to DOWNSAMPLE_COEFFICIENT seconds
     public static LowPassFilter build(int sampleRate, int cutoffFreq, int filterOrder) {
+        return build(sampleRate, cutoffFreq, filterOrder, Constants.DOWNSAMPLE_COEFFICIENT * Constants.SAMPLE_RATE);
+    }
+
+    //Create a new low pass filter, accepting signals of any length up to maxSignalLength. Each step is explained in the annotations above the function declaration for that step
+    public static LowPassFilter build(int sampleRate, int cutoffFreq, int filterOrder, int maxSignalLength) {
         float[] angles = makeAngles(filterOrder);
         float[][] unitPoles = makeUnitPoles(angles);
         float[][] scaledPoles = scaleUnitPoles(unitPoles, sampleRate, cutoffFreq);
@@ -43,25 +58,192 @@ public class LowPassFilter {
         float[][] zeros = createFilterZeros(filterOrder);
         float gain = calculateGain(unitPoles, sampleRate, cutoffFreq);
 
-        return fromZPK(zeros, poles, gain);
+        return fromZPK(zeros, poles, gain, maxSignalLength);
     }
 
     //Strictly non-concurrent! concurrent invocations will corrupt all running calculations
     //Filter the provided signal, returning the filtered and downsampled result
-    public synchronized float[] apply(float[] signal) {
-        System.arraycopy(signal, 0, paddedSignal, numerator.length - 1, signal.length);
+    //The signal may be of any length up to maxSignalLength, and the result only holds the ceil(signal.length / DOWNSAMPLE_COEFFICIENT) samples derived from it
+    @Override
+    public float[] apply(float[] signal) {
+        return apply(signal, 0, signal.length);
+    }
+
+    @Override
+    public synchronized float[] apply(float[] signal, int offset, int length) {
+        if(length > maxSignalLength){
+            throw new IllegalArgumentException("Cannot filter " + length + " samples, as the filter only fits " + maxSignalLength);
+        }
+
+        float[] downsampled = new float[(length + Constants.DOWNSAMPLE_COEFFICIENT - 1) / Constants.DOWNSAMPLE_COEFFICIENT];
+        Arrays.fill(signalState, 0.0f); //the filter starts at rest
+        filter(signal, offset, length, signalState, 0, output, downsampled, 0);
+        return downsampled;
+    }
+
+    //The 16 bit samples are scaled by the first section, so the recording is never converted to floats as a whole
+    @Override
+    public synchronized float[] apply(short[] signal, int offset, int length) {
+        if(length > maxSignalLength){
+            throw new IllegalArgumentException("Cannot filter " + length + " samples, as the filter only fits " + maxSignalLength);
+        }
+
+        float[] downsampled = new float[(length + Constants.DOWNSAMPLE_COEFFICIENT - 1) / Constants.DOWNSAMPLE_COEFFICIENT];
+        Arrays.fill(signalState, 0.0f); //the filter starts at rest
+        filter(signal, offset, length, signalState, 0, output, downsampled, 0);
+        return downsampled;
+    }
+
+    //Filters the next chunk of the stream, returning the downsampled samples it completes (which may be none, for chunks shorter than DOWNSAMPLE_COEFFICIENT)
+    public synchronized float[] process(float[] chunk, int offset, int length){
+        float[] downsampled = new float[getProcessedLength(length)];
+        process(chunk, offset, length, downsampled, 0);
+        return downsampled;
+    }
+
+    /* Same as process(chunk, offset, length), but writes the downsampled samples into output[outputOffset...] (which must fit getProcessedLength(length) floats)
+     * Returns the number of samples written. Allocation free*/
+    public synchronized int process(float[] chunk, int offset, int length, float[] output, int outputOffset){
+        int written = 0;
+        for(int start=0; start<length; start+=maxSignalLength){
+            int pieceLength = Math.min(maxSignalLength, length - start);
+            written += filter(chunk, offset + start, pieceLength, streamState, streamSkip, this.output, output, outputOffset + written);
+            streamSkip = Math.floorMod(streamSkip - pieceLength, Constants.DOWNSAMPLE_COEFFICIENT);
+        }
+
+        return written;
+    }
+
+    //The number of downsampled samples the next chunk of the given length would complete
+    public synchronized int getProcessedLength(int length){
+        return streamSkip < length? 1 + (length - 1 - streamSkip) / Constants.DOWNSAMPLE_COEFFICIENT : 0;
+    }
+
+    //Returns the stream to rest, so that the next chunk is processed as the start of a new signal
+    public synchronized void resetStream(){
+        Arrays.fill(streamState, 0.0f);
+        streamSkip = 0;
+    }
+
+    /* Runs input[inputOffset, inputOffset+length) through all sections, starting from (and updating) the given section state (see createState())
+     * The first kept sample is input[inputOffset+skip], followed by every DOWNSAMPLE_COEFFICIENT-th sample after it. Returns the number of samples kept.
+     * The output of every section but the last is written to the scratch array (which must fit length floats),
+     * so callers with their own state and scratch may run concurrently*/
+    int filter(float[] input, int inputOffset, int length, float[] state, int skip, float[] scratch, float[] downsampled, int downsampledOffset){
+        return filter(0, input, inputOffset, length, state, skip, scratch, downsampled, downsampledOffset);
+    }
+
+    //Same as filter(input, ...), for 16 bit samples (which are scaled by PCM_16BIT_SCALE as the first section reads them)
+    int filter(short[] input, int inputOffset, int length, float[] state, int skip, float[] scratch, float[] downsampled, int downsampledOffset){
+        if(sectionCount == 1){
+            //The only section is also the last one, which does not write its entire output. Convert the samples up-front instead
+            for(int n=0; n<length; n++){
+                scratch[n] = input[inputOffset + n] * Constants.PCM_16BIT_SCALE;
+            }
+
+            return filter(0, scratch, 0, length, state, skip, scratch, downsampled, downsampledOffset);
+        }
+
+        float b0 = sections[0] * Constants.PCM_16BIT_SCALE, b1 = sections[1] * Constants.PCM_16BIT_SCALE, b2 = sections[2] * Constants.PCM_16BIT_SCALE;
+        float a1 = sections[3], a2 = sections[4];
+        float z1 = state[0], z2 = state[1];
+
+        //The scale is folded into the numerator of the first section, so every short is only cast to float
+        for(int n=0; n<length; n++){
+            float x = input[inputOffset + n];
+            float y = b0*x + z1;
+            z1 = b1*x - a1*y + z2;
+            z2 = b2*x - a2*y;
+            scratch[n] = y;
+        }
+
+        state[0] = z1;
+        state[1] = z2;
+        return filter(1, scratch, 0, length, state, skip, scratch, downsampled, downsampledOffset);
+    }
+
+    //Runs the sections [firstSection, sectionCount) of the cascade. The input may be the scratch array itself
+    private int filter(int firstSection, float[] input, int inputOffset, int length, float[] state, int skip, float[] scratch, float[] downsampled, int downsampledOffset){
+        //Every section but the last writes its entire output, which is the input of the next section
+        for(int s=firstSection; s<sectionCount-1; s++){
+            float b0 = sections[5*s], b1 = sections[5*s + 1], b2 = sections[5*s + 2];
+            float a1 = sections[5*s + 3], a2 = sections[5*s + 4];
+            float z1 = state[2*s], z2 = state[2*s + 1];
 
-        for(int n=0; n<signal.length; n++){
-            System.arraycopy(paddedSignal, n, signalSlice, 0, numerator.length);
-            System.arraycopy(output, n, outputSlice, 0, numerator.length - 1);
+            for(int n=0; n<length; n++){
+                float x = input[inputOffset + n];
+                float y = b0*x + z1;
+                z1 = b1*x - a1*y + z2;
+                z2 = b2*x - a2*y;
+                scratch[n] = y;
+            }
 
-            float signalDot = ArrayUtils.dotProduct(numerator, signalSlice);
-            float outputDot = ArrayUtils.dotProduct(denominator_1, outputSlice);
-            float convolution = signalDot - outputDot;
-            output[n + numerator.length - 1] = denom0_reciprocal * convolution;
+            state[2*s] = z1;
+            state[2*s + 1] = z2;
+            input = scratch;
+            inputOffset = 0;
         }
 
-        return ArrayUtils.downsample(output, Constants.DOWNSAMPLE_COEFFICIENT, numerator.length - 1);
+        //The last section has to run on every sample too, but only the samples kept after downsampling are written
+        int s = sectionCount - 1;
+        float b0 = sections[5*s], b1 = sections[5*s + 1], b2 = sections[5*s + 2];
+        float a1 = sections[5*s + 3], a2 = sections[5*s + 4];
+        float z1 = state[2*s], z2 = state[2*s + 1];
+
+        int m = downsampledOffset;
+        for(int n=0; n<length; n++){
+            float x = input[inputOffset + n];
+            float y = b0*x + z1;
+            z1 = b1*x - a1*y + z2;
+            z2 = b2*x - a2*y;
+
+            if(skip == 0){
+                downsampled[m++] = y;
+                skip = Constants.DOWNSAMPLE_COEFFICIENT;
+            }
+            skip--;
+        }
+
+        state[2*s] = z1;
+        state[2*s + 1] = z2;
+        return m - downsampledOffset;
+    }
+
+    //Creates the state of a filter at rest (z1 and z2 of every section)
+    float[] createState(){
+        return new float[2 * sectionCount];
+    }
+
+    /* The number of samples a filter starting at rest must run before its output is within errorBound * max|x| of the output of a filter that ran on the entire signal
+     * The difference between the two outputs is sum_{k>W} h[k] * x[t-k] (h being the impulse response, and W the warm-up length),
+     * so the warm-up is the shortest W for which sum_{k>W} |h[k]| <= errorBound*/
+    int getWarmupLength(float errorBound){
+        //Compute the impulse response in double precision, so rounding does not mask its tail
+        double[] impulseResponse = new double[MAX_WARMUP_LENGTH + 1];
+        double[] state = new double[2 * sectionCount];
+        for(int n=0; n<impulseResponse.length; n++){
+            double x = n == 0? 1.0 : 0.0;
+            for(int s=0; s<sectionCount; s++){
+                double y = sections[5*s] * x + state[2*s];
+                state[2*s] = sections[5*s + 1] * x - sections[5*s + 3] * y + state[2*s + 1];
+                state[2*s + 1] = sections[5*s + 2] * x - sections[5*s + 4] * y;
+                x = y;
+            }
+            impulseResponse[n] = Math.abs(x);
+        }
+
+        double tail = 0;
+        for(int warmup=MAX_WARMUP_LENGTH; warmup>=0; warmup--){
+            tail += impulseResponse[warmup];
+            if(tail > errorBound){
+                if(warmup == MAX_WARMUP_LENGTH){
+                    throw new IllegalArgumentException("An error bound of " + errorBound + " requires a warm-up of over " + MAX_WARMUP_LENGTH + " samples");
+                }
+                return warmup;
+            }
+        }
+
+        return 0;
     }
 
     //Creates an array of angles (in radians), evenly spaced along the unit circle
@@ -158,16 +340,55 @@ public class LowPassFilter {
     }
 
     //Construct a low pass filter from zeros and poles, scaled by the filter's gain
-    private static LowPassFilter fromZPK(float[][] zeros, float[][] poles, float gain){
-        float[][] zeroCoefficients = rootsToCoefficients(zeros);
-        float[][] poleCoefficients = rootsToCoefficients(poles);
+    //The zeros and poles are grouped into second-order sections, and the gain is applied to the numerator of the first section
+    private static LowPassFilter fromZPK(float[][] zeros, float[][] poles, float gain, int maxSignalLength){
+        float[][] numerators = toQuadratics(zeros);
+        float[][] denominators = toQuadratics(poles);
+        int sectionCount = Math.max(1, Math.max(numerators.length, denominators.length));
+
+        float[] sections = new float[5 * sectionCount];
+        for(int s=0; s<sectionCount; s++){
+            float[] numerator = s < numerators.length? numerators[s] : new float[] {1, 0, 0};
+            float[] denominator = s < denominators.length? denominators[s] : new float[] {1, 0, 0};
+            float sectionGain = s == 0? gain : 1;
 
-        float[] realZeros = ArrayUtils.real(zeroCoefficients);
-        float[] realPoles = ArrayUtils.real(poleCoefficients);
+            sections[5*s] = sectionGain * numerator[0];
+            sections[5*s + 1] = sectionGain * numerator[1];
+            sections[5*s + 2] = sectionGain * numerator[2];
+            sections[5*s + 3] = denominator[1];
+            sections[5*s + 4] = denominator[2];
+        }
+
+        return new LowPassFilter(sections, maxSignalLength);
+    }
+
+    /* Groups the roots of a real polynomial into monic quadratics [1, c1, c2], representing 1 + c1*z^-1 + c2*z^-2
+     * Every complex root is paired with its conjugate, and the real roots are paired with each other.
+     * When the number of real roots is odd, the last quadratic only holds a single root (so c2 = 0)*/
+    private static float[][] toQuadratics(float[][] roots){
+        List<float[]> quadratics = new ArrayList<>();
+        List<float[]> realRoots = new ArrayList<>();
+        for(float[] root : roots){
+            if(Math.abs(root[1]) <= REAL_ROOT_TOLERANCE){
+                realRoots.add(root);
+            }else if(root[1] > 0){
+                //(1 - r*z^-1) * (1 - conj(r)*z^-1) = 1 - 2*Re(r)*z^-1 + |r|^2 * z^-2 (the conjugate itself is skipped)
+                double real = root[0];
+                double imag = root[1];
+                quadratics.add(new float[] {1, (float)(-2 * real), (float)(real * real + imag * imag)});
+            }
+        }
+
+        for(int i=0; i<realRoots.size(); i+=2){
+            double first = realRoots.get(i)[0];
+            if(i + 1 < realRoots.size()){
+                double second = realRoots.get(i + 1)[0];
+                quadratics.add(new float[] {1, (float)-(first + second), (float)(first * second)});
+            }else{
+                quadratics.add(new float[] {1, (float)-first, 0});
+            }
+        }
 
-        return new LowPassFilter(
-            ArrayUtils.multiply(realZeros, gain),
-            realPoles
-        );
+        return quadratics.toArray(new float[0][]);
     }
 }
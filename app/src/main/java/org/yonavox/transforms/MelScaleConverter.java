@@ -1,37 +1,244 @@
 package org.yonavox.transforms;
 
 import org.yonavox.util.ArrayUtils;
-import org.ujmp.core.DenseMatrix;
-import org.ujmp.core.Matrix;
-import org.ujmp.core.calculation.Calculation;
-import org.ujmp.core.floatmatrix.impl.ArrayDenseFloatMatrix2D;
+import org.yonavox.util.FastLog;
+import org.yonavox.util.FloatMatrix;
 
-//Converts spectrograms from linear hertz scale to logarithmic mel-scale
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/* Converts spectrograms from linear hertz scale to logarithmic mel-scale
+ * Each triangular mel filter only covers a narrow band of frequency bins, and is zero everywhere else.
+ * The filter bank is therefore stored sparsely: for every mel bin, the range of frequency bins [filterStarts, filterEnds) it covers, and the weights over that range
+ *
+ * By default, decibels are computed with Math.log10 (in double precision). In fast-log mode, a FastLog table is used instead,
+ * and every decibel is within getMaxDecibelError() of the exact conversion (before clipping, which can only shrink the error)*/
 public class MelScaleConverter {
     private static final float MAX_AMPLITUDE = 80.0f; //in decibels
-    public final Matrix filterBank;
+    private static final double LOG_MAX_AMPLITUDE = Math.log10(MAX_AMPLITUDE);
+
+    //Sparse filter bank
+    private final int[] filterStarts; //the first frequency bin with a non-zero weight, for every mel bin
+    private final int[] filterEnds; //one past the last frequency bin with a non-zero weight, for every mel bin
+    private final float[][] filterWeights; //filterWeights[melBin][j] is the weight of frequency bin filterStarts[melBin] + j
+    private final int frequencyBins;
+    private final FastLog fastLog; //null unless in fast-log mode
+
+    //Pre-allocated arrays
+    private static final int rowPoolSize = 1024; //enough rows for a few log-mel spectrograms
+    private final BlockingQueue<float[]> rowPool; //log-mel rows handed back via recycle(), reused by later invocations of convert()
 
-    private MelScaleConverter(Matrix filterBank){
-        this.filterBank = filterBank;
+    private MelScaleConverter(int[] filterStarts, int[] filterEnds, float[][] filterWeights, int frequencyBins, FastLog fastLog){
+        this.filterStarts = filterStarts;
+        this.filterEnds = filterEnds;
+        this.filterWeights = filterWeights;
+        this.frequencyBins = frequencyBins;
+        this.fastLog = fastLog;
+        this.rowPool = new ArrayBlockingQueue<>(rowPoolSize);
     }
 
     public static MelScaleConverter build(int sampleRate, int frameLength, int numBins, int minFreq, int maxFreq){
-        float[][] filterBankArray = makeFilterBank(sampleRate, frameLength, numBins, minFreq, maxFreq);
-        Matrix filterBank = DenseMatrix.Factory.importFromArray(filterBankArray);
-        return new MelScaleConverter(filterBank.transpose());
-    }
-
-    public synchronized float[][] convert(float[][] raw){
-        Matrix spectrogram = new ArrayDenseFloatMatrix2D(raw);
-        Matrix melScale = spectrogram.mtimes(this.filterBank);
-        Matrix sqMel = melScale.power(Calculation.Ret.ORIG, 2);
-        Matrix decibels = sqMel.log10(Calculation.Ret.ORIG)
-            .minus(Math.log10(MAX_AMPLITUDE))
-            .times(10.0f);
-
-        float maxDecibel = (float)decibels.getMaxValue();
-        float clip = Math.max(-100.0f - (float)Math.log10(MAX_AMPLITUDE), maxDecibel - MAX_AMPLITUDE);
-        return ArrayUtils.ipMaximum(decibels.toFloatArray(), clip);
+        return build(sampleRate, frameLength, numBins, minFreq, maxFreq, 0);
+    }
+
+    //When fastLogBits is positive, decibels are computed in fast-log mode, with a mantissa table indexed by that many bits (see FastLog)
+    public static MelScaleConverter build(int sampleRate, int frameLength, int numBins, int minFreq, int maxFreq, int fastLogBits){
+        float[][] filterBank = makeFilterBank(sampleRate, frameLength, numBins, minFreq, maxFreq);
+
+        //Keep only the band of non-zero weights of every filter
+        int[] filterStarts = new int[numBins];
+        int[] filterEnds = new int[numBins];
+        float[][] filterWeights = new float[numBins][];
+        for(int binIdx=0; binIdx<numBins; binIdx++){
+            float[] filter = filterBank[binIdx];
+            int start = 0;
+            int end = filter.length;
+            while(start < end && filter[start] == 0){
+                start++;
+            }
+            while(end > start && filter[end - 1] == 0){
+                end--;
+            }
+
+            filterStarts[binIdx] = start;
+            filterEnds[binIdx] = end;
+            filterWeights[binIdx] = Arrays.copyOfRange(filter, start, end);
+        }
+
+        FastLog fastLog = fastLogBits > 0? FastLog.build(fastLogBits) : null;
+        return new MelScaleConverter(filterStarts, filterEnds, filterWeights, 1 + frameLength/2, fastLog);
+    }
+
+    public int getBinCount(){
+        return filterWeights.length;
+    }
+
+    //The maximal difference between the decibels computed by this converter and the exact ones (zero, unless in fast-log mode)
+    public double getMaxDecibelError(){
+        return fastLog != null? 20.0 * fastLog.getMaxError() : 0.0;
+    }
+
+    //Returns the filter bank as a dense [numBins][frameLength/2 + 1] array
+    public float[][] getFilterBank(){
+        float[][] filterBank = new float[filterWeights.length][frequencyBins];
+        for(int binIdx=0; binIdx<filterWeights.length; binIdx++){
+            System.arraycopy(filterWeights[binIdx], 0, filterBank[binIdx], filterStarts[binIdx], filterWeights[binIdx].length);
+        }
+
+        return filterBank;
+    }
+
+    //The result belongs to the caller, who may hand it back via recycle() once it is no longer needed
+    public float[][] convert(float[][] raw){
+        float[][] output = new float[raw.length][];
+        for(int k=0; k<output.length; k++){
+            float[] row = rowPool.poll();
+            output[k] = row != null? row : new float[getBinCount()];
+        }
+
+        return convert(raw, output);
+    }
+
+    //Hands the rows of a log-mel spectrogram returned by convert() back to the pool. The caller must not use it afterwards
+    public void recycle(float[][] melSpectrogram){
+        for(float[] row : melSpectrogram){
+            if(row.length == getBinCount() && !rowPool.offer(row)){
+                return;
+            }
+        }
+    }
+
+    /* Converts the spectrogram to log-mel scale, writing the result into the given output (which must be at least raw.length x numBins)
+     * Each value is projected onto the mel filters, squared and converted to decibels in a single pass, then clipped to the top MAX_AMPLITUDE decibels.
+     * Allocation free and thread safe*/
+    public float[][] convert(float[][] raw, float[][] output){
+        for(int k=0; k<raw.length; k++){
+            convertColumn(raw[k], output[k]);
+        }
+
+        return clip(output);
+    }
+
+    /* Same as convert(raw, output), but writes the log-mel spectrogram into a flat, row-major buffer (which must fit raw.length * numBins floats)
+     * Row k starts at output[k * numBins], which is the memory layout of the recognition model's input tensor*/
+    public float[] convert(float[][] raw, float[] output){
+        int numBins = getBinCount();
+        for(int k=0; k<raw.length; k++){
+            convertColumn(raw[k], output, k * numBins);
+        }
+
+        return clip(output, raw.length * numBins);
+    }
+
+    public FloatMatrix convert(FloatMatrix raw){
+        return convert(raw, FloatMatrix.build(raw.getRows(), getBinCount()));
+    }
+
+    //Same as convert(raw, output), for a spectrogram (and a log-mel spectrogram) stored as matrices. Row k of the output is the log-mel column of row k of raw
+    public FloatMatrix convert(FloatMatrix raw, FloatMatrix output){
+        for(int k=0; k<raw.getRows(); k++){
+            convertColumn(raw.getData(), raw.getRowOffset(k), output.getData(), output.getRowOffset(k));
+        }
+
+        return clip(output, raw.getRows());
+    }
+
+    /* Converts a single spectrogram column to (unclipped) mel-scale decibels
+     * Thread safe and allocation free, so it can be fused into the spectrogram frame loop (see SpectrogramMaker.ColumnMapper)
+     * Once all columns are converted, clip() must be called on the entire log-mel spectrogram*/
+    public void convertColumn(float[] column, float[] output){
+        convertColumn(column, output, 0);
+    }
+
+    //Same as convertColumn(column, output), but writes the numBins decibels starting at output[outputOffset]
+    public void convertColumn(float[] column, float[] output, int outputOffset){
+        convertColumn(column, 0, output, outputOffset);
+    }
+
+    //Same as convertColumn(column, output, outputOffset), for the column starting at column[columnOffset] (e.g. a row of a matrix)
+    public void convertColumn(float[] column, int columnOffset, float[] output, int outputOffset){
+        for(int binIdx=0; binIdx<filterWeights.length; binIdx++){
+            float[] weights = filterWeights[binIdx];
+            int start = columnOffset + filterStarts[binIdx];
+            int end = columnOffset + filterEnds[binIdx];
+            float melValue = 0;
+            for(int j=start; j<end; j++){
+                melValue += column[j] * weights[j - start];
+            }
+
+            if(fastLog != null){
+                //10*log10(mel^2) = 20*log10(|mel|), which avoids squaring (and underflowing) small values in float
+                output[outputOffset + binIdx] = 20.0f * fastLog.log10(melValue) - 10.0f * (float)LOG_MAX_AMPLITUDE;
+            }else{
+                double sqMel = (double)melValue * melValue;
+                output[outputOffset + binIdx] = (float)(10.0 * (Math.log10(sqMel) - LOG_MAX_AMPLITUDE));
+            }
+        }
+    }
+
+    //Clips every value of a log-mel spectrogram (produced by convertColumn) to the top MAX_AMPLITUDE decibels
+    public float[][] clip(float[][] decibels){
+        return clip(decibels, decibels.length);
+    }
+
+    //Same as clip(decibels), but only considers (and clips) the first rowCount rows
+    public float[][] clip(float[][] decibels, int rowCount){
+        float maxDecibel = -Float.MAX_VALUE;
+        for(int k=0; k<rowCount; k++){
+            for(float decibel : decibels[k]){
+                maxDecibel = Math.max(maxDecibel, decibel);
+            }
+        }
+
+        float clip = Math.max(-100.0f - (float)LOG_MAX_AMPLITUDE, maxDecibel - MAX_AMPLITUDE);
+        for(int k=0; k<rowCount; k++){
+            ArrayUtils.ipMaximum(decibels[k], clip);
+        }
+
+        return decibels;
+    }
+
+    public FloatMatrix clip(FloatMatrix decibels){
+        return clip(decibels, decibels.getRows());
+    }
+
+    //Same as clip(decibels, rowCount), for a log-mel spectrogram stored as a matrix
+    public FloatMatrix clip(FloatMatrix decibels, int rowCount){
+        float[] data = decibels.getData();
+        int numBins = decibels.getCols();
+        float maxDecibel = -Float.MAX_VALUE;
+        for(int k=0; k<rowCount; k++){
+            int row = decibels.getRowOffset(k);
+            for(int binIdx=0; binIdx<numBins; binIdx++){
+                maxDecibel = Math.max(maxDecibel, data[row + binIdx]);
+            }
+        }
+
+        float clip = Math.max(-100.0f - (float)LOG_MAX_AMPLITUDE, maxDecibel - MAX_AMPLITUDE);
+        for(int k=0; k<rowCount; k++){
+            int row = decibels.getRowOffset(k);
+            for(int binIdx=0; binIdx<numBins; binIdx++){
+                data[row + binIdx] = Math.max(data[row + binIdx], clip);
+            }
+        }
+
+        return decibels;
+    }
+
+    //Same as clip(decibels), for the first {length} values of a flat log-mel spectrogram
+    public float[] clip(float[] decibels, int length){
+        float maxDecibel = -Float.MAX_VALUE;
+        for(int i=0; i<length; i++){
+            maxDecibel = Math.max(maxDecibel, decibels[i]);
+        }
+
+        float clip = Math.max(-100.0f - (float)LOG_MAX_AMPLITUDE, maxDecibel - MAX_AMPLITUDE);
+        for(int i=0; i<length; i++){
+            decibels[i] = Math.max(decibels[i], clip);
+        }
+
+        return decibels;
     }
 
     /* There are two common implementations for mel-scale:
@@ -0,0 +1,153 @@
+package org.yonavox.transforms;
+
+import org.yonavox.util.Constants;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/* Runs a LowPassFilter over blocks of the signal concurrently, stitching their downsampled outputs together
+ * An IIR filter depends on all of its past input, so a block cannot simply start at rest.
+ * Instead, every block starts warmupLength samples early (at rest), and only keeps its output from the start of the block onwards.
+ * The warm-up is derived from the impulse response of the filter, so every sample is within errorBound * max|x| of the sequential filter.
+ *
+ * Blocks start at multiples of DOWNSAMPLE_COEFFICIENT, so the downsampling phase of every block matches the sequential filter.
+ * Thread safe: every block runs with its own filter state and scratch space*/
+public class ParallelLowPassFilter implements Downsampler {
+    private static final int minWarmupsPerBlock = 16; //blocks are at least this many warm-ups long, so the overlap adds at most 1/16 of the work
+
+    private final LowPassFilter filter;
+    private final float errorBound;
+    private final int warmupLength;
+
+    //Concurrency settings
+    private final ForkJoinPool threadPool;
+    private final boolean ownsThreadPool; //only a pool created by the filter is shut down by it
+    private final int minBlockLength;
+
+    private ParallelLowPassFilter(LowPassFilter filter, float errorBound, ForkJoinPool threadPool, boolean ownsThreadPool){
+        this.filter = filter;
+        this.errorBound = errorBound;
+        this.warmupLength = filter.getWarmupLength(errorBound);
+        this.threadPool = threadPool;
+        this.ownsThreadPool = ownsThreadPool;
+        this.minBlockLength = roundToPhase(Math.max(Constants.DOWNSAMPLE_COEFFICIENT, minWarmupsPerBlock * warmupLength));
+    }
+
+    //Blocks are filtered on a thread pool owned by the filter, with a thread for every available core
+    public static ParallelLowPassFilter build(LowPassFilter filter, float errorBound){
+        return build(filter, errorBound, new ForkJoinPool(Runtime.getRuntime().availableProcessors()), true);
+    }
+
+    //Blocks are filtered on the given thread pool, which is shared with the caller (and is not shut down by the filter)
+    public static ParallelLowPassFilter build(LowPassFilter filter, float errorBound, ForkJoinPool threadPool){
+        return build(filter, errorBound, threadPool, false);
+    }
+
+    private static ParallelLowPassFilter build(LowPassFilter filter, float errorBound, ForkJoinPool threadPool, boolean ownsThreadPool){
+        if(!(errorBound > 0)){
+            throw new IllegalArgumentException("The error bound must be positive, got " + errorBound);
+        }
+
+        return new ParallelLowPassFilter(filter, errorBound, threadPool, ownsThreadPool);
+    }
+
+    @Override
+    public float[] apply(float[] signal){
+        return apply(signal, 0, signal.length);
+    }
+
+    //Signals of any length are accepted, as every block brings its own scratch space
+    @Override
+    public float[] apply(float[] signal, int offset, int length){
+        return apply(signal, null, offset, length);
+    }
+
+    @Override
+    public float[] apply(short[] signal, int offset, int length){
+        return apply(null, signal, offset, length);
+    }
+
+    //Exactly one of the float and 16 bit signals is given
+    private float[] apply(float[] floatSignal, short[] shortSignal, int offset, int length){
+        float[] downsampled = new float[(length + Constants.DOWNSAMPLE_COEFFICIENT - 1) / Constants.DOWNSAMPLE_COEFFICIENT];
+        if(length == 0){
+            return downsampled;
+        }
+
+        //A block per thread, unless that makes the blocks too short to be worth their warm-up
+        int threadCount = threadPool.getParallelism();
+        int blockLength = Math.max(minBlockLength, roundToPhase((length + threadCount - 1) / threadCount));
+        int blockCount = (length + blockLength - 1) / blockLength;
+        threadPool.invoke(new BlockBatch(floatSignal, shortSignal, offset, length, blockLength, downsampled, 0, blockCount));
+        return downsampled;
+    }
+
+    //Stops the thread pool, if it was created by this filter. Calling apply() afterwards is not allowed
+    public void shutdown(){
+        if(ownsThreadPool){
+            threadPool.shutdown();
+        }
+    }
+
+    public float getErrorBound(){
+        return errorBound;
+    }
+
+    //The number of samples every block (but the first) is filtered ahead of its start
+    public int getWarmupLength(){
+        return warmupLength;
+    }
+
+    //Rounds the length up to a multiple of DOWNSAMPLE_COEFFICIENT
+    private static int roundToPhase(int length){
+        return (length + Constants.DOWNSAMPLE_COEFFICIENT - 1) / Constants.DOWNSAMPLE_COEFFICIENT * Constants.DOWNSAMPLE_COEFFICIENT;
+    }
+
+    //A range of blocks [startBlockIdx, endBlockIdx), filtered as a single task or split into two halves
+    private class BlockBatch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final float[] floatSignal; //null for a 16 bit signal
+        private final short[] shortSignal; //null for a float signal
+        private final int offset;
+        private final int length;
+        private final int blockLength;
+        private final float[] downsampled;
+        private final int startBlockIdx;
+        private final int endBlockIdx;
+
+        private BlockBatch(float[] floatSignal, short[] shortSignal, int offset, int length, int blockLength, float[] downsampled, int startBlockIdx, int endBlockIdx){
+            this.floatSignal = floatSignal;
+            this.shortSignal = shortSignal;
+            this.offset = offset;
+            this.length = length;
+            this.blockLength = blockLength;
+            this.downsampled = downsampled;
+            this.startBlockIdx = startBlockIdx;
+            this.endBlockIdx = endBlockIdx;
+        }
+
+        @Override
+        protected void compute() {
+            if(endBlockIdx - startBlockIdx > 1){
+                int middleBlockIdx = (startBlockIdx + endBlockIdx) / 2;
+                invokeAll(
+                    new BlockBatch(floatSignal, shortSignal, offset, length, blockLength, downsampled, startBlockIdx, middleBlockIdx),
+                    new BlockBatch(floatSignal, shortSignal, offset, length, blockLength, downsampled, middleBlockIdx, endBlockIdx)
+                );
+                return;
+            }
+
+            //Start at rest, warmupLength samples ahead of the block (or at the start of the signal), and only keep the samples of the block itself
+            int blockStart = startBlockIdx * blockLength;
+            int blockEnd = Math.min(length, blockStart + blockLength);
+            int warmupStart = Math.max(0, blockStart - warmupLength);
+            float[] scratch = new float[blockEnd - warmupStart];
+            if(floatSignal != null){
+                filter.filter(floatSignal, offset + warmupStart, blockEnd - warmupStart, filter.createState(), blockStart - warmupStart, scratch, downsampled, blockStart / Constants.DOWNSAMPLE_COEFFICIENT);
+            }else{
+                filter.filter(shortSignal, offset + warmupStart, blockEnd - warmupStart, filter.createState(), blockStart - warmupStart, scratch, downsampled, blockStart / Constants.DOWNSAMPLE_COEFFICIENT);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.yonavox.transforms;
+
+import org.yonavox.util.Constants;
+import org.yonavox.util.FloatMatrix;
+import org.yonavox.util.MetricsRegistry;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* Runs the stages of a PreprocessingPipeline side by side, instead of one after another
+ * The downsampled signal is produced in chunks, and the three stages are connected by bounded hand-off queues:
+ *   filter thread: decimates chunk N+1 of the recording      => chunk queue
+ *   STFT thread:   pushes chunk N into a SpectrogramStream, and polls every column it completes      => column queue
+ *   caller thread: projects every column onto the mel filters, straight into its row of the output
+ * So the STFT of a chunk starts as soon as it was filtered, and the mel conversion of a column as soon as it was transformed.
+ * The features are the same as PreprocessingPipeline.preprocess() without a column cache (the stream computes the same frames as the SpectrogramMaker).
+ *
+ * Chunks and columns are handed off in pre-allocated holders, which return to their pools once consumed.
+ * The pools are as large as the queues (plus one holder in the hands of each side), so a stage running ahead of the next one blocks instead of allocating.
+ * Calls to preprocess() are serialized, as the stages and their buffers belong to a single recording at a time.
+ * The time every stage spent working on a recording (excluding waits on its queues) is recorded in the metrics registry of the pipeline*/
+public class PipelinedPreprocessor {
+    private static final Handoff END_OF_SIGNAL = new Handoff(new float[0]); //sent downstream by every stage once it is done (or has failed)
+
+    private final PreprocessingPipeline pipeline;
+    private final SpectrogramStream spectroStream;
+    private final int chunkLength; //in downsampled samples
+    private final ExecutorService stageThreads;
+    private final int poolSize;
+
+    private final BlockingQueue<Handoff> chunkPool;
+    private final BlockingQueue<Handoff> chunkQueue;
+    private final BlockingQueue<Handoff> columnPool;
+    private final BlockingQueue<Handoff> columnQueue;
+
+    private PipelinedPreprocessor(PreprocessingPipeline pipeline, int chunkLength, int queueCapacity){
+        this.pipeline = pipeline;
+        this.spectroStream = SpectrogramStream.build(pipeline.getSpectrogramMaker());
+        this.chunkLength = chunkLength;
+        this.stageThreads = Executors.newFixedThreadPool(2);
+
+        this.poolSize = queueCapacity + 2;
+        this.chunkPool = new ArrayBlockingQueue<>(poolSize);
+        this.chunkQueue = new ArrayBlockingQueue<>(poolSize);
+        this.columnPool = new ArrayBlockingQueue<>(poolSize);
+        this.columnQueue = new ArrayBlockingQueue<>(poolSize);
+        refillPools();
+    }
+
+    public static PipelinedPreprocessor build(PreprocessingPipeline pipeline){
+        return build(pipeline, Constants.PIPELINE_CHUNK_LENGTH, Constants.PIPELINE_QUEUE_CAPACITY);
+    }
+
+    //chunkLength is in downsampled samples, and queueCapacity is the number of chunks (and columns) a stage may run ahead of the next one
+    public static PipelinedPreprocessor build(PreprocessingPipeline pipeline, int chunkLength, int queueCapacity){
+        if(chunkLength < 1 || queueCapacity < 1){
+            throw new IllegalArgumentException("Pipelined stages require positive chunks and queues, got chunks of " + chunkLength + " samples and queues of " + queueCapacity);
+        }
+
+        return new PipelinedPreprocessor(pipeline, chunkLength, queueCapacity);
+    }
+
+    public PreprocessingPipeline getPipeline(){
+        return pipeline;
+    }
+
+    public int getChunkLength(){
+        return chunkLength;
+    }
+
+    public FloatMatrix preprocess(float[] rawPcmData){
+        return preprocess(rawPcmData, -1);
+    }
+
+    //rawPcmOffset is only used to align the downsampled signal (as in PreprocessingPipeline.preprocess), as columns are never cached
+    public synchronized FloatMatrix preprocess(float[] rawPcmData, long rawPcmOffset){
+        PolyphaseDecimator downsampler = pipeline.getDownsampler();
+        int skipped = pipeline.getAlignmentSkip(rawPcmOffset);
+        int length = rawPcmData.length - skipped;
+        return run(downsampler.getOutputLength(length), rawPcmData.length, (start, end, output) -> downsampler.apply(rawPcmData, skipped, length, start, end, output, 0));
+    }
+
+    //Same as preprocess(rawPcmData, rawPcmOffset), for a 16 bit recording
+    public synchronized FloatMatrix preprocess(short[] rawPcmData, long rawPcmOffset){
+        PolyphaseDecimator downsampler = pipeline.getDownsampler();
+        int skipped = pipeline.getAlignmentSkip(rawPcmOffset);
+        int length = rawPcmData.length - skipped;
+        return run(downsampler.getOutputLength(length), rawPcmData.length, (start, end, output) -> downsampler.apply(rawPcmData, skipped, length, start, end, output, 0));
+    }
+
+    //Stops the stage threads, along with the pipeline. Calling preprocess() afterwards is not allowed
+    public void shutdown(){
+        stageThreads.shutdown();
+        pipeline.shutdown();
+    }
+
+    private FloatMatrix run(int downsampledLength, int rawLength, ChunkFilter chunkFilter){
+        long start = System.nanoTime();
+        MetricsRegistry metrics = pipeline.getMetrics();
+        SpectrogramMaker spectroMaker = pipeline.getSpectrogramMaker();
+        MelScaleConverter melScaleConverter = pipeline.getMelScaleConverter();
+        int hopCount = spectroMaker.getHopCount(downsampledLength);
+        FloatMatrix melSpectrogram = FloatMatrix.build(pipeline.getHopCount(rawLength), melScaleConverter.getBinCount());
+
+        refillPools();
+        spectroStream.reset();
+        Future<?> filterStage = stageThreads.submit(() -> filterChunks(downsampledLength, chunkFilter));
+        Future<?> stftStage = stageThreads.submit(() -> transformChunks(hopCount));
+
+        //Mel stage, on the calling thread
+        long melNanos = 0;
+        try {
+            Handoff column;
+            while((column = columnQueue.take()) != END_OF_SIGNAL){
+                long columnStart = System.nanoTime();
+                melScaleConverter.convertColumn(column.samples, melSpectrogram.getData(), melSpectrogram.getRowOffset(column.position));
+                melNanos += System.nanoTime() - columnStart;
+                columnPool.offer(column);
+            }
+        } catch (InterruptedException e) {
+            filterStage.cancel(true);
+            stftStage.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while preprocessing a recording", e);
+        }
+
+        //Every stage has sent its end of signal by now. If the STFT stage failed, the filter stage may be stuck on a full queue, so it is interrupted
+        try {
+            stftStage.get();
+        } catch (InterruptedException | ExecutionException e) {
+            filterStage.cancel(true);
+            throw new RuntimeException("Failed to transform a recording of " + downsampledLength + " downsampled samples", e);
+        }
+        try {
+            filterStage.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Failed to filter a recording of " + downsampledLength + " downsampled samples", e);
+        }
+
+        long clipStart = System.nanoTime();
+        melScaleConverter.clip(melSpectrogram, hopCount);
+        PreprocessingPipeline.padColumns(melSpectrogram, hopCount);
+        metrics.histogram(MetricsRegistry.MEL).record(melNanos + System.nanoTime() - clipStart);
+        metrics.histogram(MetricsRegistry.PREPROCESS).recordSince(start);
+        return melSpectrogram;
+    }
+
+    //Filter stage: decimates the recording chunk by chunk, holding the lock of the decimator for the entire recording
+    private void filterChunks(int downsampledLength, ChunkFilter chunkFilter){
+        try {
+            long filterNanos = 0;
+            synchronized(pipeline.getDownsampler()){
+                for(int chunkStart=0; chunkStart<downsampledLength; chunkStart+=chunkLength){
+                    Handoff chunk = chunkPool.take();
+                    long chunkTime = System.nanoTime();
+                    int chunkEnd = Math.min(chunkStart + chunkLength, downsampledLength);
+                    chunkFilter.filter(chunkStart, chunkEnd, chunk.samples);
+                    chunk.position = chunkEnd - chunkStart;
+                    filterNanos += System.nanoTime() - chunkTime;
+                    chunkQueue.put(chunk);
+                }
+            }
+            pipeline.getMetrics().histogram(MetricsRegistry.LOW_PASS).record(filterNanos);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while filtering", e);
+        } finally {
+            handOff(chunkQueue, END_OF_SIGNAL);
+        }
+    }
+
+    //STFT stage: pushes every chunk into the stream, and polls the first hopCount columns as soon as they are complete
+    private void transformChunks(int hopCount){
+        try {
+            long stftNanos = 0;
+            Handoff chunk;
+            while((chunk = chunkQueue.take()) != END_OF_SIGNAL){
+                long chunkTime = System.nanoTime();
+                spectroStream.push(chunk.samples, 0, chunk.position);
+                chunkPool.offer(chunk);
+                stftNanos += System.nanoTime() - chunkTime;
+
+                while(spectroStream.getNextFrame() < hopCount && spectroStream.hasColumn()){
+                    Handoff column = columnPool.take();
+                    long columnTime = System.nanoTime();
+                    column.position = (int)spectroStream.pollColumn(column.samples);
+                    stftNanos += System.nanoTime() - columnTime;
+                    columnQueue.put(column);
+                }
+            }
+            pipeline.getMetrics().histogram(MetricsRegistry.STFT).record(stftNanos);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while transforming", e);
+        } finally {
+            handOff(columnQueue, END_OF_SIGNAL);
+        }
+    }
+
+    //Fills both pools with holders. After a failed recording, holders may be left in the queues (or lost along with the stage holding them)
+    private void refillPools(){
+        for(Handoff handoff : chunkQueue){
+            if(handoff != END_OF_SIGNAL){
+                chunkPool.offer(handoff);
+            }
+        }
+        for(Handoff handoff : columnQueue){
+            if(handoff != END_OF_SIGNAL){
+                columnPool.offer(handoff);
+            }
+        }
+        chunkQueue.clear();
+        columnQueue.clear();
+
+        while(chunkPool.size() < poolSize){
+            chunkPool.add(new Handoff(new float[chunkLength]));
+        }
+        while(columnPool.size() < poolSize){
+            columnPool.add(new Handoff(new float[pipeline.getSpectrogramMaker().getBinCount()]));
+        }
+    }
+
+    private static void handOff(BlockingQueue<Handoff> queue, Handoff handoff){
+        try {
+            queue.put(handoff);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //Computes the downsampled samples [start, end) into output[0, end - start)
+    private interface ChunkFilter {
+        void filter(int start, int end, float[] output);
+    }
+
+    //A chunk of the downsampled signal (where position is its length), or a spectrogram column (where position is its frame index)
+    private static final class Handoff {
+        private final float[] samples;
+        private int position;
+
+        private Handoff(float[] samples){
+            this.samples = samples;
+        }
+    }
+}
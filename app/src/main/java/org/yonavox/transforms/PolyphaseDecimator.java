@@ -0,0 +1,172 @@
+package org.yonavox.transforms;
+
+import org.yonavox.util.Constants;
+
+/* A linear-phase FIR anti-aliasing filter, which only computes the output samples kept after downsampling
+ * With a decimation factor of M and filter taps h, the kept output is y[m] = sum_k h[k] * x[m*M - k].
+ * The taps are split into M polyphase branches e_p[j] = h[j*M + p], each running at the output rate over its own phase of the input x_p[n] = x[n*M - p]:
+ *   y[m] = sum_p sum_j e_p[j] * x_p[m - j]
+ * Compared to filtering every input sample and discarding M-1 of every M outputs, this does 1/M of the work,
+ * and every branch is a contiguous dot product over its (de-interleaved) phase of the input
+ *
+ * The taps are a windowed sinc (Hamming window), normalized to unit gain at 0 Hz*/
+public class PolyphaseDecimator implements Downsampler {
+    //Filter taps
+    private final float[][] branches; //branches[p][j] = h[j*M + p], flipped so that each branch is a forward dot product
+    private final int branchLength;
+    private final int tapCount;
+    private final int factor;
+
+    //Pre-allocated arrays, fitting signals of up to maxSignalLength samples
+    private final int maxSignalLength;
+    private final float[][] phases; //phases[p][branchLength - 1 + n] = x[n*M - p], with branchLength - 1 leading zeros (the filter starts at rest)
+
+    private PolyphaseDecimator(float[] taps, int factor, int maxSignalLength){
+        this.factor = factor;
+        this.tapCount = taps.length;
+        this.branchLength = (taps.length + factor - 1) / factor;
+        this.branches = new float[factor][branchLength];
+        for(int k=0; k<taps.length; k++){
+            branches[k % factor][branchLength - 1 - k / factor] = taps[k];
+        }
+
+        this.maxSignalLength = maxSignalLength;
+        int maxOutputLength = (maxSignalLength + factor - 1) / factor;
+        this.phases = new float[factor][branchLength - 1 + maxOutputLength];
+    }
+
+    //Create a new decimator, accepting signals of up to DOWNSAMPLE_COEFFICIENT seconds
+    public static PolyphaseDecimator build(int sampleRate, int cutoffFreq, int factor, int tapCount){
+        return build(sampleRate, cutoffFreq, factor, tapCount, Constants.DOWNSAMPLE_COEFFICIENT * Constants.SAMPLE_RATE);
+    }
+
+    //Create a new decimator, keeping every factor-th sample of signals of any length up to maxSignalLength
+    public static PolyphaseDecimator build(int sampleRate, int cutoffFreq, int factor, int tapCount, int maxSignalLength){
+        if(tapCount < 1 || factor < 1){
+            throw new IllegalArgumentException("A decimator requires at least one tap and a positive factor, got " + tapCount + " taps and a factor of " + factor);
+        }
+
+        return new PolyphaseDecimator(makeTaps(sampleRate, cutoffFreq, tapCount), factor, maxSignalLength);
+    }
+
+    //Returns the filter taps h[0], h[1], ..., h[tapCount-1]
+    public float[] getTaps(){
+        float[] taps = new float[tapCount];
+        for(int k=0; k<tapCount; k++){
+            taps[k] = branches[k % factor][branchLength - 1 - k / factor];
+        }
+
+        return taps;
+    }
+
+    @Override
+    public float[] apply(float[] signal){
+        return apply(signal, 0, signal.length);
+    }
+
+    //Strictly non-concurrent, as the phases of the input are de-interleaved into shared buffers
+    @Override
+    public synchronized float[] apply(float[] signal, int offset, int length){
+        float[] output = new float[getOutputLength(length)];
+        apply(signal, offset, length, 0, output.length, output, 0);
+        return output;
+    }
+
+    //The 16 bit samples are scaled while being de-interleaved, so the recording is never converted to floats as a whole
+    @Override
+    public synchronized float[] apply(short[] signal, int offset, int length){
+        float[] output = new float[getOutputLength(length)];
+        apply(signal, offset, length, 0, output.length, output, 0);
+        return output;
+    }
+
+    public int getOutputLength(int signalLength){
+        return (signalLength + factor - 1) / factor;
+    }
+
+    //The number of leading output samples that read the zeros before the start of the signal (the filter starts at rest)
+    //Past these, every output sample only depends on the input samples around its own position
+    public int getSettlingLength(){
+        return branchLength;
+    }
+
+    /* Computes the output samples [outputStart, outputEnd) of apply(signal, offset, length) into output[outputOffset, ...)
+     * Every range reads the phases de-interleaved by the ranges before it, so the ranges of a signal must be computed in order (starting at 0, without gaps),
+     * by a caller holding the lock of the decimator for the entire signal (see PipelinedPreprocessor)*/
+    void apply(float[] signal, int offset, int length, int outputStart, int outputEnd, float[] output, int outputOffset){
+        if(length > maxSignalLength){
+            throw new IllegalArgumentException("Cannot filter " + length + " samples, as the decimator only fits " + maxSignalLength);
+        }
+
+        //De-interleave the input into its phases. Samples past the end of the signal are zeros, just like the samples before its start
+        for(int p=0; p<factor; p++){
+            float[] phase = phases[p];
+            for(int n=outputStart; n<outputEnd; n++){
+                int idx = n*factor - p;
+                phase[branchLength - 1 + n] = 0 <= idx && idx < length? signal[offset + idx] : 0.0f;
+            }
+        }
+
+        runBranches(outputStart, outputEnd, output, outputOffset);
+    }
+
+    //Same as apply(signal, offset, length, outputStart, outputEnd, output, outputOffset), for a 16 bit recording
+    void apply(short[] signal, int offset, int length, int outputStart, int outputEnd, float[] output, int outputOffset){
+        if(length > maxSignalLength){
+            throw new IllegalArgumentException("Cannot filter " + length + " samples, as the decimator only fits " + maxSignalLength);
+        }
+
+        for(int p=0; p<factor; p++){
+            float[] phase = phases[p];
+            for(int n=outputStart; n<outputEnd; n++){
+                int idx = n*factor - p;
+                phase[branchLength - 1 + n] = 0 <= idx && idx < length? signal[offset + idx] * Constants.PCM_16BIT_SCALE : 0.0f;
+            }
+        }
+
+        runBranches(outputStart, outputEnd, output, outputOffset);
+    }
+
+    //Runs every branch over its (already de-interleaved) phase, at the output rate
+    private void runBranches(int outputStart, int outputEnd, float[] output, int outputOffset){
+        int shift = outputOffset - outputStart;
+        for(int m=outputStart; m<outputEnd; m++){
+            output[m + shift] = 0;
+        }
+
+        for(int p=0; p<factor; p++){
+            float[] branch = branches[p];
+            float[] phase = phases[p];
+            for(int m=outputStart; m<outputEnd; m++){
+                float sum = 0;
+                for(int j=0; j<branchLength; j++){
+                    sum += branch[j] * phase[m + j];
+                }
+                output[m + shift] += sum;
+            }
+        }
+    }
+
+    //A Hamming-windowed sinc, with a cutoff of cutoffFreq hertz, centered at (tapCount - 1) / 2 (and therefore symmetric, i.e. linear phase)
+    private static float[] makeTaps(int sampleRate, int cutoffFreq, int tapCount){
+        double normalizedCutoff = (double)cutoffFreq / sampleRate;
+        double center = (tapCount - 1) / 2.0;
+        double[] taps = new double[tapCount];
+        double tapSum = 0;
+        for(int k=0; k<tapCount; k++){
+            double t = k - center;
+            double sinc = t == 0? 2 * normalizedCutoff : Math.sin(2 * Math.PI * normalizedCutoff * t) / (Math.PI * t);
+            double window = tapCount > 1? 0.54 - 0.46 * Math.cos(2 * Math.PI * k / (tapCount - 1)) : 1.0;
+            taps[k] = sinc * window;
+            tapSum += taps[k];
+        }
+
+        //Normalize to unit gain at 0 Hz
+        float[] normalizedTaps = new float[tapCount];
+        for(int k=0; k<tapCount; k++){
+            normalizedTaps[k] = (float)(taps[k] / tapSum);
+        }
+
+        return normalizedTaps;
+    }
+}
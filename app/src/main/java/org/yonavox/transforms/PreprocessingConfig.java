@@ -0,0 +1,115 @@
+package org.yonavox.transforms;
+
+import org.yonavox.util.Constants;
+
+/* The settings of a PreprocessingPipeline: the raw sample rate, the decimation factor, the STFT frame and hop, and the number of mel bins
+ * Everything else the stages need is derived from these: the downsampled rate, the anti-aliasing cutoff (the new Nyquist frequency),
+ * the number of decimator taps and the upper edge of the mel filter bank.
+ * Configs are immutable, so a single config may be shared by any number of pipelines*/
+public class PreprocessingConfig {
+    private static final int TAPS_PER_PHASE = 12; //as in Constants.DECIMATOR_TAPS
+
+    private final int sampleRate;
+    private final int downsampleCoefficient;
+    private final int frameLength;
+    private final int hopLength;
+    private final int melBins;
+    private final int maxClipLength; //in raw samples
+    private final int fastLogBits; //0 for exact decibels
+    private final int cachedColumns; //0 for no column cache
+
+    private PreprocessingConfig(int sampleRate, int downsampleCoefficient, int frameLength, int hopLength, int melBins, int maxClipLength, int fastLogBits, int cachedColumns) {
+        this.sampleRate = sampleRate;
+        this.downsampleCoefficient = downsampleCoefficient;
+        this.frameLength = frameLength;
+        this.hopLength = hopLength;
+        this.melBins = melBins;
+        this.maxClipLength = maxClipLength;
+        this.fastLogBits = fastLogBits;
+        this.cachedColumns = cachedColumns;
+    }
+
+    //The configuration the recognition model was trained with (see Constants)
+    public static PreprocessingConfig getDefault(){
+        return build(
+            Constants.SAMPLE_RATE,
+            Constants.DOWNSAMPLE_COEFFICIENT,
+            Constants.FRAME_LENGTH,
+            Constants.HOP_LENGTH,
+            Constants.MEL_BINS,
+            Constants.DOWNSAMPLE_COEFFICIENT * Constants.SPECTROGRAM_TIMESTAMPS,
+            Constants.FAST_LOG_BITS,
+            Constants.CACHED_COLUMNS
+        );
+    }
+
+    //Accepts clips of up to maxClipLength raw samples, with exact decibels and without a column cache
+    public static PreprocessingConfig build(int sampleRate, int downsampleCoefficient, int frameLength, int hopLength, int melBins, int maxClipLength){
+        return build(sampleRate, downsampleCoefficient, frameLength, hopLength, melBins, maxClipLength, 0, 0);
+    }
+
+    //fastLogBits is passed on to the MelScaleConverter (0 for exact decibels), and cachedColumns to the ColumnCache (0 for no cache)
+    public static PreprocessingConfig build(int sampleRate, int downsampleCoefficient, int frameLength, int hopLength, int melBins, int maxClipLength, int fastLogBits, int cachedColumns){
+        if(sampleRate <= 0 || downsampleCoefficient < 1){
+            throw new IllegalArgumentException("Cannot downsample " + sampleRate + " Hz audio by a factor of " + downsampleCoefficient);
+        }
+        if(frameLength < 4 || Integer.bitCount(frameLength) != 1 || hopLength < 1){
+            throw new IllegalArgumentException("Frames must be a power of two of at least 4 samples, with a positive hop (got " + frameLength + " and " + hopLength + ")");
+        }
+        if(melBins < 1 || maxClipLength < 1 || fastLogBits < 0 || cachedColumns < 0){
+            throw new IllegalArgumentException("Invalid preprocessing config: " + melBins + " mel bins, clips of " + maxClipLength + " samples, " + fastLogBits + " fast-log bits, " + cachedColumns + " cached columns");
+        }
+
+        return new PreprocessingConfig(sampleRate, downsampleCoefficient, frameLength, hopLength, melBins, maxClipLength, fastLogBits, cachedColumns);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getDownsampleCoefficient() {
+        return downsampleCoefficient;
+    }
+
+    public int getDownsampleRate() {
+        return sampleRate / downsampleCoefficient;
+    }
+
+    //The Nyquist frequency of the downsampled signal, which is also the upper edge of the mel filter bank
+    public int getCutoffFrequency() {
+        return sampleRate / (2 * downsampleCoefficient);
+    }
+
+    public int getDecimatorTaps() {
+        return TAPS_PER_PHASE * downsampleCoefficient + 1;
+    }
+
+    public int getFrameLength() {
+        return frameLength;
+    }
+
+    public int getHopLength() {
+        return hopLength;
+    }
+
+    public int getMelBins() {
+        return melBins;
+    }
+
+    public int getMaxClipLength() {
+        return maxClipLength;
+    }
+
+    //The length of the longest clip after downsampling
+    public int getMaxDownsampledLength() {
+        return (maxClipLength + downsampleCoefficient - 1) / downsampleCoefficient;
+    }
+
+    public int getFastLogBits() {
+        return fastLogBits;
+    }
+
+    public int getCachedColumns() {
+        return cachedColumns;
+    }
+}
@@ -0,0 +1,206 @@
+package org.yonavox.transforms;
+
+import org.yonavox.util.FloatMatrix;
+import org.yonavox.util.LatencyHistogram;
+import org.yonavox.util.MetricsRegistry;
+
+import java.util.concurrent.ForkJoinPool;
+
+/* Converts raw PCM recordings to log-mel spectrograms: low-pass + downsample, then the fused STFT and log-mel conversion
+ * A pipeline is built from a PreprocessingConfig, and owns its stages along with all of their buffers, so any number of pipelines
+ * (with the same config or different ones) may run side by side, e.g. live capture next to a replay of recorded clips.
+ * Concurrent calls to the same pipeline are safe, but wait for each other's downsampling; build a pipeline per thread to avoid that.
+ * Log-mel spectrograms are returned as contiguous getHopCount(rawPcmData.length) x melBins matrices, whose backing array is the input tensor of the recognition model
+ *
+ * The latency of every stage of preprocess() is recorded into the histograms of a MetricsRegistry (the global registry, unless given another one)*/
+public class PreprocessingPipeline {
+    private final PreprocessingConfig config;
+    private final PolyphaseDecimator downsampler;
+    private final SpectrogramMaker spectroMaker;
+    private final MelScaleConverter melScaleConverter;
+    private final LogMelExtractor logMelExtractor;
+
+    //Metrics
+    private final MetricsRegistry metrics;
+    private final LatencyHistogram lowPassLatency;
+    private final LatencyHistogram logMelLatency;
+    private final LatencyHistogram preprocessLatency;
+
+    private PreprocessingPipeline(PreprocessingConfig config, PolyphaseDecimator downsampler, SpectrogramMaker spectroMaker, MelScaleConverter melScaleConverter, LogMelExtractor logMelExtractor, MetricsRegistry metrics) {
+        this.config = config;
+        this.downsampler = downsampler;
+        this.spectroMaker = spectroMaker;
+        this.melScaleConverter = melScaleConverter;
+        this.logMelExtractor = logMelExtractor;
+
+        this.metrics = metrics;
+        this.lowPassLatency = metrics.histogram(MetricsRegistry.LOW_PASS);
+        this.logMelLatency = metrics.histogram(MetricsRegistry.LOG_MEL);
+        this.preprocessLatency = metrics.histogram(MetricsRegistry.PREPROCESS);
+    }
+
+    //Spectrogram frames are computed on a thread pool owned by the pipeline, with a thread for every available core
+    public static PreprocessingPipeline build(PreprocessingConfig config){
+        return build(config, null);
+    }
+
+    //Spectrogram frames are computed on the given thread pool, which is shared with the caller (and is not shut down by the pipeline)
+    public static PreprocessingPipeline build(PreprocessingConfig config, ForkJoinPool frameThreads){
+        return build(config, frameThreads, MetricsRegistry.getGlobal());
+    }
+
+    //Same as build(config, frameThreads), recording the latencies of the pipeline into the given registry
+    public static PreprocessingPipeline build(PreprocessingConfig config, ForkJoinPool frameThreads, MetricsRegistry metrics){
+        //Only computes the samples kept after downsampling (the IIR LowPassFilter computes every sample, then discards most of them)
+        PolyphaseDecimator downsampler = PolyphaseDecimator.build(
+            config.getSampleRate(),
+            config.getCutoffFrequency(),
+            config.getDownsampleCoefficient(),
+            config.getDecimatorTaps(),
+            config.getMaxClipLength()
+        );
+        SpectrogramMaker spectroMaker = SpectrogramMaker.build(
+            config.getFrameLength(),
+            config.getHopLength(),
+            true,
+            Radix4FftEngine.build(config.getFrameLength() / 2),
+            frameThreads,
+            config.getMaxDownsampledLength()
+        );
+        MelScaleConverter melScaleConverter = MelScaleConverter.build(
+            config.getDownsampleRate(),
+            config.getFrameLength(),
+            config.getMelBins(),
+            0,
+            config.getCutoffFrequency(),
+            config.getFastLogBits()
+        );
+        LogMelExtractor logMelExtractor = config.getCachedColumns() > 0?
+            LogMelExtractor.build(spectroMaker, melScaleConverter, ColumnCache.build(config.getCachedColumns(), config.getMelBins()), downsampler.getSettlingLength()) :
+            LogMelExtractor.build(spectroMaker, melScaleConverter);
+
+        return new PreprocessingPipeline(config, downsampler, spectroMaker, melScaleConverter, logMelExtractor, metrics);
+    }
+
+    public PreprocessingConfig getConfig(){
+        return config;
+    }
+
+    public MetricsRegistry getMetrics(){
+        return metrics;
+    }
+
+    public PolyphaseDecimator getDownsampler(){
+        return downsampler;
+    }
+
+    public SpectrogramMaker getSpectrogramMaker(){
+        return spectroMaker;
+    }
+
+    public MelScaleConverter getMelScaleConverter(){
+        return melScaleConverter;
+    }
+
+    //null if the config does not cache columns
+    public ColumnCache getColumnCache(){
+        return logMelExtractor.getColumnCache();
+    }
+
+    //The number of columns preprocess() returns for a recording of rawLength samples, whatever its stream position
+    public int getHopCount(int rawLength){
+        return spectroMaker.getHopCount(downsampler.getOutputLength(rawLength));
+    }
+
+    public FloatMatrix preprocess(float[] rawPcmData){
+        return preprocess(rawPcmData, -1);
+    }
+
+    /* rawPcmOffset is the stream position of rawPcmData[0] (as returned by RecordingService.getRecording().getOffset()), or -1 if unknown
+     * When known, columns already computed for earlier (overlapping) recordings are taken from the cache instead of being recomputed*/
+    public FloatMatrix preprocess(float[] rawPcmData, long rawPcmOffset){
+        long start = System.nanoTime();
+        float[] downsampledAudio = downsample(rawPcmData, rawPcmOffset);
+        lowPassLatency.recordSince(start);
+        //WavUtils.playRecording(downsampledAudio, config.getDownsampleRate());
+
+        return extractLogMel(downsampledAudio, getDownsampledOffset(rawPcmOffset), rawPcmData.length, start);
+    }
+
+    //Same as preprocess(rawPcmData, rawPcmOffset), for a 16 bit recording (converted to floats by the downsampler, as it filters the samples)
+    public FloatMatrix preprocess(short[] rawPcmData, long rawPcmOffset){
+        long start = System.nanoTime();
+        float[] downsampledAudio = downsample(rawPcmData, rawPcmOffset);
+        lowPassLatency.recordSince(start);
+
+        return extractLogMel(downsampledAudio, getDownsampledOffset(rawPcmOffset), rawPcmData.length, start);
+    }
+
+    //The downsampling stage of preprocess(rawPcmData, rawPcmOffset), without any logging
+    public float[] downsample(float[] rawPcmData, long rawPcmOffset){
+        int skipped = getAlignmentSkip(rawPcmOffset);
+        return downsampler.apply(rawPcmData, skipped, rawPcmData.length - skipped);
+    }
+
+    public float[] downsample(short[] rawPcmData, long rawPcmOffset){
+        int skipped = getAlignmentSkip(rawPcmOffset);
+        return downsampler.apply(rawPcmData, skipped, rawPcmData.length - skipped);
+    }
+
+    //The log-mel stage of preprocess(rawPcmData, rawPcmOffset), without any logging
+    //downsampledOffset is the stream position of downsampledAudio[0] in the downsampled stream, or -1 if unknown
+    public FloatMatrix extract(float[] downsampledAudio, long downsampledOffset){
+        return logMelExtractor.extract(downsampledAudio, downsampledOffset);
+    }
+
+    //Stops the spectrogram thread pool, if it was created by this pipeline. Calling preprocess() afterwards is not allowed
+    public void shutdown(){
+        spectroMaker.shutdown();
+    }
+
+    /* Skip the first few samples, so that the downsampled signal starts at a stream position divisible by the downsample coefficient times the hop length
+     * That way, the frames of every recording sit on the same grid of stream positions, and overlapping recordings share their frames (and cached columns)
+     * whatever sample they were triggered at. This drops less than one hop of downsampled samples, so a recording may lose its last column (see padColumns)*/
+    int getAlignmentSkip(long rawPcmOffset){
+        int alignment = config.getDownsampleCoefficient() * config.getHopLength();
+        return rawPcmOffset < 0? 0 : (int)((alignment - rawPcmOffset % alignment) % alignment);
+    }
+
+    private long getDownsampledOffset(long rawPcmOffset){
+        return rawPcmOffset < 0? -1 : (rawPcmOffset + getAlignmentSkip(rawPcmOffset)) / config.getDownsampleCoefficient();
+    }
+
+    /* Repeats the last of the first computedRows rows of the log-mel spectrogram in all rows after it
+     * The recognition model was only ever fed spectrograms of whole recordings, so a column dropped by the alignment is replaced
+     * by its (nearly identical) neighbour rather than changing the height of the input tensor*/
+    static void padColumns(FloatMatrix melSpectrogram, int computedRows){
+        if(computedRows < 1){
+            return;
+        }
+
+        for(int k=computedRows; k<melSpectrogram.getRows(); k++){
+            System.arraycopy(melSpectrogram.getData(), melSpectrogram.getRowOffset(computedRows - 1), melSpectrogram.getData(), melSpectrogram.getRowOffset(k), melSpectrogram.getCols());
+        }
+    }
+
+    private FloatMatrix extractLogMel(float[] downsampledAudio, long downsampledOffset, int rawLength, long start){
+        ColumnCache columnCache = getColumnCache();
+        long hitsBefore = columnCache != null? columnCache.getHitCount() : 0;
+        long missesBefore = columnCache != null? columnCache.getMissCount() : 0;
+
+        //The STFT and log-mel conversion are fused, so the linear spectrogram is never materialized (and the two are timed together)
+        long extractStart = System.nanoTime();
+        FloatMatrix melSpectrogram = FloatMatrix.build(getHopCount(rawLength), config.getMelBins());
+        logMelExtractor.extract(downsampledAudio, downsampledOffset, melSpectrogram);
+        padColumns(melSpectrogram, spectroMaker.getHopCount(downsampledAudio.length));
+        logMelLatency.recordSince(extractStart);
+        preprocessLatency.recordSince(start);
+
+        if(columnCache != null){
+            metrics.counter(MetricsRegistry.CACHED_COLUMNS).add(columnCache.getHitCount() - hitsBefore);
+            metrics.counter(MetricsRegistry.COMPUTED_COLUMNS).add(columnCache.getMissCount() - missesBefore);
+        }
+
+        return melSpectrogram;
+    }
+}
@@ -0,0 +1,167 @@
+package org.yonavox.transforms;
+
+import org.yonavox.util.ArrayUtils;
+import org.yonavox.util.ComplexUtils;
+
+import java.util.ArrayDeque;
+
+/* The original radix-2 implementation, kept as the reference every other FftEngine is validated against
+ * The standard textbook implementations of FFT use recursion, but the call stack can get quite large for long signals which reduces performance.
+ * That's why I opted for a non recursive implementation (breadth-first, using a for-loop)
+ * The recursive version of this algorithm is explained in https://en.wikipedia.org/wiki/Cooley%E2%80%93Tukey_FFT_algorithm*/
+public class Radix2FftEngine implements FftEngine {
+    //Lookup tables
+    private final int[] shuffledIndices;
+    private final int[][] pairIndexLookup;
+    private final float[] eCoefficients;
+
+    //Constants
+    private final int length;
+    private final int fftIterationLimit;
+
+    private Radix2FftEngine(int length, int[] shuffledIndices, int[][] pairIndexLookup, float[] eCoefficients) {
+        this.length = length;
+        this.fftIterationLimit = pairIndexLookup.length;
+
+        this.shuffledIndices = shuffledIndices;
+        this.pairIndexLookup = pairIndexLookup;
+        this.eCoefficients = eCoefficients;
+    }
+
+    public static Radix2FftEngine build(int length){
+        int maxOrder = (int)(Math.log(length) / Math.log(2));
+
+        int[] shuffledIndices = createShuffledIndices(length);
+        int[][] pairIndexLookup = generateIndexPairs(length, maxOrder);
+        float[] eCoefficients = getECoefficients(length);
+
+        return new Radix2FftEngine(length, shuffledIndices, pairIndexLookup, eCoefficients);
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public int[] getShuffledIndices() {
+        return shuffledIndices;
+    }
+
+    //The scratch buffer holds the results of the computation leftArg + eCoef * rightArg, for every pair of the current step
+    @Override
+    public float[] createScratch() {
+        return new float[2 * length];
+    }
+
+    @Override
+    public void transform(float[] shuffledFrame, float[] scratch){
+        int eSpacing = length;
+
+        //Iterate over the signal log2(n) times, where n = length
+        for(int order = 0; order< fftIterationLimit; order++){
+            //Extract the constants for the current iteration of the outer loop
+            int[] currentLookup = this.pairIndexLookup[order];
+            eSpacing *= 0.5;
+
+            //Iterate over the index pairs in currentLookup
+            for(int pairIdx=0; pairIdx<length; pairIdx++){
+                //Extract the required offsets from the index lookup and from the e lookup
+                int leftOffset = currentLookup[2*pairIdx];
+                int rightOffset = currentLookup[2*pairIdx + 1];
+                int eOffset = 2 * ((pairIdx*eSpacing) % length);
+                int resultOffset = 2 * pairIdx;
+
+                //The computation itself is quite simple: left + e*right
+                //(the product is stored in the result slot first, which is safe as the multiplication reads both arguments before writing)
+                ComplexUtils.multiply(this.eCoefficients, eOffset, shuffledFrame, rightOffset, scratch, resultOffset);
+                ComplexUtils.add(shuffledFrame, leftOffset, scratch, resultOffset, scratch, resultOffset);
+            }
+
+            //Set the results for the current step (of the outer loop)
+            System.arraycopy(scratch, 0, shuffledFrame, 0, scratch.length);
+        }
+    }
+
+    /* One of the steps for implementing a non-recursive FFT is an index shuffle of the input.
+     * The shuffle can be achieved using bit-level hacking, or the algorithm below.
+     * Because the index shuffle is only calculated once (all signals will be of the same length)
+     * It can be stored somewhere in the mobile app, without needing to calculate it again.
+     * That's why I chose this algorithm for clarity (over the bit-level equivalent)*/
+    static int[] createShuffledIndices(int frameLength){
+        //Initialize the index orderng to the natural ordering [0, 1, 2, ...]
+        int[] naturalOrdering = new int[frameLength];
+        for(int i=0; i<frameLength; i++){
+            naturalOrdering[i] = i;
+        }
+
+        //Create a queue to hold the current order, starting with the natural index order
+        //The queue mimics a jagged array, with arrays getting shorter all the time
+        int iterationLimit = (int)(Math.log(frameLength) / Math.log(2)) - 1;
+        ArrayDeque<int[]> shuffledFrame = new ArrayDeque<>();
+        shuffledFrame.addLast(naturalOrdering);
+
+        //Run for {iterationLimit} iterations
+        for(int iter=0; iter<iterationLimit; iter++){
+            int shuffledCoefficients = 0;
+            while(shuffledCoefficients < frameLength){
+                //In each iteration we pop the first element, and split it by the even and odd indices of the subrame (frame idx, not frame value)
+                int[] currentSubframe = shuffledFrame.removeFirst();
+                int[] evenIndices = ArrayUtils.downsample(currentSubframe, 2, 0);
+                int[] oddIndices = ArrayUtils.downsample(currentSubframe, 2, 1);
+
+                //We then push both index arrays to the queue
+                shuffledCoefficients += currentSubframe.length;
+                shuffledFrame.addLast(evenIndices);
+                shuffledFrame.addLast(oddIndices);
+            }
+        }
+
+        //By this stage the array has been fully shuffled
+        //(when the arrays in the queue are of size 2, additional shuffles do not change the order of the values across all arrays)
+        //We can concat the arrays and return them
+        return ArrayUtils.concat(shuffledFrame.toArray(new int[0][0]));
+    }
+
+    /* In the non-recursive FFT, we perform multiplications between elements at certain indices at every iteration of the main loop body
+     * Since the signals are of the same length, we can pre-calculate the index lookup
+     *
+     * when n = windowLength
+     * Dimension 0 corresponds to the k-th iteration of the main loop (of which there are log(n) iterations)
+     * Dimension 1 holds the pair of offsets to retrieve for the l-th lookup call (of which there are n calls every loop iteration)
+     * The offsets point into the interleaved frame, i.e. they are twice the index of the complex number
+
+     * This generation method uses four nested loops, but is still O(n) in time complexity*/
+    private static int[][] generateIndexPairs(int frameLength, int maxOrder){
+        int[][] indexPairs = new int[maxOrder][2 * frameLength];
+
+        for(int order=0; order<maxOrder; order++){
+            int pairsPerGroup = (int)Math.pow(2, order);
+            int groupsPerIdxTable = (int)(0.5 * frameLength / pairsPerGroup);
+            int pairIdx = 0;
+
+            for(int groupIdx=0; groupIdx<groupsPerIdxTable; groupIdx++){
+                for(int foo=0; foo<2; foo++){
+                    for(int ppgIdx=0; ppgIdx<pairsPerGroup; pairIdx++, ppgIdx++){
+                        indexPairs[order][2*pairIdx] = 2 * (2*pairsPerGroup*groupIdx + ppgIdx);
+                        indexPairs[order][2*pairIdx + 1] = 2 * (2*pairsPerGroup*groupIdx + pairsPerGroup + ppgIdx);
+                    }
+                }
+            }
+        }
+
+        return indexPairs;
+    }
+
+    //Generates {amount} interleaved complex numbers, evenly spaced along the unit circle in the complex plane
+    static float[] getECoefficients(int amount){
+        float[] coefficients = new float[2 * amount];
+        for(int i=0; i<amount; i++){
+            float exponent = -2*(float)Math.PI*i/amount;
+            coefficients[2*i] = (float)Math.cos(exponent);
+            coefficients[2*i + 1] = (float)Math.sin(exponent);
+        }
+
+        return coefficients;
+    }
+}
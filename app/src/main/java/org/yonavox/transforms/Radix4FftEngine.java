@@ -0,0 +1,135 @@
+package org.yonavox.transforms;
+
+/* A radix-4 FFT, running in-place over a bit-reversed frame (the same shuffle as the radix-2 reference)
+ * Every radix-4 pass does the work of two consecutive radix-2 passes: for each group of four values it reads them once,
+ * multiplies three of them by their twiddle factors (instead of four multiplications for two radix-2 passes) and writes them back once.
+ * When log2(n) is odd, a single twiddle-free radix-2 pass runs first.
+ *
+ * With a quarter-span of L, and w = e^(-2*pi*i*j/4L) for the j-th value of the group, the butterfly is:
+ *   p = x0 + w^2*x1    q = x0 - w^2*x1
+ *   r = w*x2 + w^3*x3  s = w*x2 - w^3*x3
+ *   x0 = p + r    x1 = q - i*s    x2 = p - r    x3 = q + i*s
+ * The twiddle factors of each pass are stored contiguously, in the order they are consumed: [w, w^2, w^3] for j = 0, 1, ..., L-1*/
+public class Radix4FftEngine implements FftEngine {
+    //Lookup tables
+    private final int[] shuffledIndices;
+    private final float[][] passTwiddles; //passTwiddles[pass] holds 6 floats (3 complex numbers) per butterfly
+
+    //Constants
+    private final int length;
+    private final boolean radix2FirstPass;
+
+    private Radix4FftEngine(int length, boolean radix2FirstPass, int[] shuffledIndices, float[][] passTwiddles) {
+        this.length = length;
+        this.radix2FirstPass = radix2FirstPass;
+        this.shuffledIndices = shuffledIndices;
+        this.passTwiddles = passTwiddles;
+    }
+
+    public static Radix4FftEngine build(int length){
+        int maxOrder = (int)(Math.log(length) / Math.log(2));
+        boolean radix2FirstPass = maxOrder % 2 == 1;
+
+        int[] shuffledIndices = Radix2FftEngine.createShuffledIndices(length);
+        float[][] passTwiddles = createPassTwiddles(maxOrder / 2, radix2FirstPass? 2 : 1);
+
+        return new Radix4FftEngine(length, radix2FirstPass, shuffledIndices, passTwiddles);
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public int[] getShuffledIndices() {
+        return shuffledIndices;
+    }
+
+    //All passes run in-place, so no scratch space is required
+    @Override
+    public float[] createScratch() {
+        return new float[0];
+    }
+
+    @Override
+    public void transform(float[] shuffledFrame, float[] scratch){
+        int quarterSpan = 1;
+        if(radix2FirstPass){
+            for(int left=0; left<2*length; left+=4){
+                int right = left + 2;
+                float real = shuffledFrame[left];
+                float imag = shuffledFrame[left + 1];
+
+                shuffledFrame[left] = real + shuffledFrame[right];
+                shuffledFrame[left + 1] = imag + shuffledFrame[right + 1];
+                shuffledFrame[right] = real - shuffledFrame[right];
+                shuffledFrame[right + 1] = imag - shuffledFrame[right + 1];
+            }
+
+            quarterSpan = 2;
+        }
+
+        for(float[] twiddles : passTwiddles){
+            int spanOffset = 2 * quarterSpan; //the distance between x0, x1, x2 and x3 in the interleaved frame
+            int groupSize = 4 * spanOffset;
+            for(int groupStart=0; groupStart<2*length; groupStart+=groupSize){
+                for(int j=0, t=0; j<quarterSpan; j++, t+=6){
+                    int x0 = groupStart + 2*j;
+                    int x1 = x0 + spanOffset;
+                    int x2 = x1 + spanOffset;
+                    int x3 = x2 + spanOffset;
+
+                    //w^2*x1, w*x2 and w^3*x3
+                    float t1Real = twiddles[t+2] * shuffledFrame[x1] - twiddles[t+3] * shuffledFrame[x1+1];
+                    float t1Imag = twiddles[t+2] * shuffledFrame[x1+1] + twiddles[t+3] * shuffledFrame[x1];
+                    float t2Real = twiddles[t] * shuffledFrame[x2] - twiddles[t+1] * shuffledFrame[x2+1];
+                    float t2Imag = twiddles[t] * shuffledFrame[x2+1] + twiddles[t+1] * shuffledFrame[x2];
+                    float t3Real = twiddles[t+4] * shuffledFrame[x3] - twiddles[t+5] * shuffledFrame[x3+1];
+                    float t3Imag = twiddles[t+4] * shuffledFrame[x3+1] + twiddles[t+5] * shuffledFrame[x3];
+
+                    float pReal = shuffledFrame[x0] + t1Real;
+                    float pImag = shuffledFrame[x0+1] + t1Imag;
+                    float qReal = shuffledFrame[x0] - t1Real;
+                    float qImag = shuffledFrame[x0+1] - t1Imag;
+                    float rReal = t2Real + t3Real;
+                    float rImag = t2Imag + t3Imag;
+                    float sReal = t2Real - t3Real;
+                    float sImag = t2Imag - t3Imag;
+
+                    shuffledFrame[x0] = pReal + rReal;
+                    shuffledFrame[x0+1] = pImag + rImag;
+                    shuffledFrame[x1] = qReal + sImag;
+                    shuffledFrame[x1+1] = qImag - sReal;
+                    shuffledFrame[x2] = pReal - rReal;
+                    shuffledFrame[x2+1] = pImag - rImag;
+                    shuffledFrame[x3] = qReal - sImag;
+                    shuffledFrame[x3+1] = qImag + sReal;
+                }
+            }
+
+            quarterSpan *= 4;
+        }
+    }
+
+    //Creates the twiddle table of every radix-4 pass, starting with the given quarter-span (which grows 4-fold every pass)
+    private static float[][] createPassTwiddles(int passCount, int firstQuarterSpan){
+        float[][] passTwiddles = new float[passCount][];
+        int quarterSpan = firstQuarterSpan;
+        for(int pass=0; pass<passCount; pass++){
+            float[] twiddles = new float[6 * quarterSpan];
+            for(int j=0; j<quarterSpan; j++){
+                for(int power=1; power<=3; power++){
+                    double angle = -2 * Math.PI * power * j / (4.0 * quarterSpan);
+                    twiddles[6*j + 2*(power-1)] = (float)Math.cos(angle);
+                    twiddles[6*j + 2*(power-1) + 1] = (float)Math.sin(angle);
+                }
+            }
+
+            passTwiddles[pass] = twiddles;
+            quarterSpan *= 4;
+        }
+
+        return passTwiddles;
+    }
+}
@@ -1,172 +1,307 @@
 package org.yonavox.transforms;
 
 import org.yonavox.util.ArrayUtils;
-import org.yonavox.util.ComplexUtils;
 import org.yonavox.util.Constants;
-
-import java.util.ArrayDeque;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-
-//Handles anything to do with spectrogram generation
+import org.yonavox.util.FloatMatrix;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/* Handles anything to do with spectrogram generation
+ * A SpectrogramMaker is thread safe: the lookup tables are immutable and shared by all invocations,
+ * while every frame batch borrows its FFT buffers from a bounded pool of workspaces (one per thread in the pool, so borrowing never blocks)
+ *
+ * Frames are scheduled on a work-stealing ForkJoinPool: the frame range is split in halves until the batches are small enough,
+ * and idle threads steal batches from busy ones, so a single slow core cannot stall the entire spectrogram
+ *
+ * Signals may be of any length up to maxSignalLength: all buffers are sized for the longest signal once, and reused by shorter ones.
+ * The spectrogram of a signal of length L only holds its 1 + (L - frameLength) / hopLength valid columns*/
 public class SpectrogramMaker {
     //Lookup tables
-    private final int[] shuffledIndices;
-    private final int[][][] pairIndexLookup;
-    private final float[][] eCoefficients;
-    private final float[] fftWindow;
+    private final FftEngine fftEngine;
+    private final float[] splitCoefficients; //only used in real-input mode, where the half-length FFT is split back into frameLength/2 + 1 bins
+    private final int[] loadOffsets; //the offset (within the frame) of every sample loaded into the FFT engine, in the engine's shuffled order
+    private final float[] loadWindow; //the window coefficient of every sample loaded into the FFT engine, in the same order
 
     //Constants
     private final int frameLength;
     private final int hopLength;
-    private final int fftIterationLimit;
+    private final int fftLength; //frameLength for the complex path, frameLength/2 for the real-input path
+    private final boolean realInput;
 
     //Pre-allocated arrays
-    private final float[] kIndices; //linearly interpolated start+end indices, splitting the frames into batches
-    private final float[][] frames; //The signal frames, after extraction, used in-place for windowing
-    private final float[][] fftMultiplications; //holds the result of the computation eCoef * rightArg (in the fft method)
-    private final float[][][] fftComputations; //holds the result of the computation leftArg + eCoef * rightArg (in the fft method)
-    private final float[][][] fftStepResults; //holds the results of the previous fft step
-    private final float[][] spectrogram; //The holy grail
+    private final int maxSignalLength;
+    private final int maxHopCount;
+    private final BlockingQueue<Workspace> workspacePool; //the FFT buffers, borrowed by each batch for the duration of its frames
+    private final BlockingQueue<float[]> paddedSignalPool; //the reflection-padded signals, borrowed by each invocation of transform()
+    private final BlockingQueue<float[]> columnPool; //spectrogram columns handed back via recycle(), reused by later invocations of transform()
 
     //Concurrency settings
-    private static final int threadCount = 8;
-    private final Executor threadPool = Executors.newFixedThreadPool(threadCount);
+    private static final int spectrogramPoolSize = 4;
+    private static final int batchesPerThread = 4; //frames are split into (at least) this many batches per thread, leaving enough batches to steal
+    private final ForkJoinPool threadPool;
+    private final boolean ownsThreadPool; //only a pool created by the SpectrogramMaker is shut down by it
+    private final int minBatchSize;
 
-    private SpectrogramMaker(int frameLength, int hopLength, int[] shuffledIndices, int[][][] pairIndexLookup, float[][] eCoefficients, float[] fftWindow) {
+    private SpectrogramMaker(int frameLength, int hopLength, int maxSignalLength, boolean realInput, FftEngine fftEngine, float[] splitCoefficients, int[] loadOffsets, float[] loadWindow, ForkJoinPool threadPool, boolean ownsThreadPool) {
         this.frameLength = frameLength;
         this.hopLength = hopLength;
-        this.fftIterationLimit = (int)(Math.log(frameLength) / Math.log(2));
-
-        this.shuffledIndices = shuffledIndices;
-        this.pairIndexLookup = pairIndexLookup;
-        this.eCoefficients = eCoefficients;
-        this.fftWindow = fftWindow;
-
-        int hopCount = 1 + (Constants.SPECTROGRAM_TIMESTAMPS - this.frameLength) / this.hopLength;
-        this.kIndices = ArrayUtils.linspace(0, hopCount, threadCount + 1);
-        this.frames = new float[hopCount][this.frameLength];
-        this.fftMultiplications = new float[threadCount][2];
-        this.fftComputations = new float[threadCount][this.frameLength][2];
-        this.fftStepResults = new float[threadCount][this.frameLength][2];
-        this.spectrogram = new float[hopCount][this.frameLength / 2 + 1];
+        this.realInput = realInput;
+        this.fftLength = fftEngine.getLength();
+
+        this.fftEngine = fftEngine;
+        this.splitCoefficients = splitCoefficients;
+        this.loadOffsets = loadOffsets;
+        this.loadWindow = loadWindow;
+        this.threadPool = threadPool;
+        this.ownsThreadPool = ownsThreadPool;
+
+        int threadCount = threadPool.getParallelism();
+        this.maxSignalLength = maxSignalLength;
+        this.maxHopCount = getHopCount(maxSignalLength);
+        this.minBatchSize = Math.max(1, maxHopCount / (batchesPerThread * threadCount));
+        this.workspacePool = new ArrayBlockingQueue<>(threadCount);
+        this.paddedSignalPool = new ArrayBlockingQueue<>(spectrogramPoolSize);
+        this.columnPool = new ArrayBlockingQueue<>(Math.max(1, spectrogramPoolSize * maxHopCount));
+
+        for(int workerId=0; workerId<threadCount; workerId++){
+            this.workspacePool.add(createWorkspace());
+        }
     }
 
     public static SpectrogramMaker build(int frameLength, int hopLength){
-        int maxOrder = (int)(Math.log(frameLength) / Math.log(2));
+        return build(frameLength, hopLength, false);
+    }
+
+    /* When realInput is set, every frame of n real samples is packed into n/2 complex numbers (even samples as the real part, odd samples as the imaginary part)
+     * The packed frame goes through an n/2-point FFT, whose output is then split back into the n/2 + 1 bins of the n-point FFT.
+     * This halves the butterfly work and the FFT workspaces, and produces the same spectrogram as the complex path (up to float rounding)*/
+    public static SpectrogramMaker build(int frameLength, int hopLength, boolean realInput){
+        int fftLength = realInput? frameLength / 2 : frameLength;
+        return build(frameLength, hopLength, realInput, Radix4FftEngine.build(fftLength));
+    }
+
+    //The engine must transform frameLength complex numbers, or frameLength/2 complex numbers when realInput is set
+    //Frames are computed on a thread pool owned by the SpectrogramMaker, with a thread for every available core
+    public static SpectrogramMaker build(int frameLength, int hopLength, boolean realInput, FftEngine fftEngine){
+        return build(frameLength, hopLength, realInput, fftEngine, null, Constants.SPECTROGRAM_TIMESTAMPS);
+    }
+
+    //Frames are computed on the given thread pool, which is shared with the caller (and is not shut down by the SpectrogramMaker)
+    public static SpectrogramMaker build(int frameLength, int hopLength, boolean realInput, FftEngine fftEngine, ForkJoinPool threadPool){
+        return build(frameLength, hopLength, realInput, fftEngine, threadPool, Constants.SPECTROGRAM_TIMESTAMPS);
+    }
+
+    //Accepts signals of any length up to maxSignalLength (instead of SPECTROGRAM_TIMESTAMPS)
+    //If threadPool is null, frames are computed on a thread pool owned by the SpectrogramMaker, with a thread for every available core
+    public static SpectrogramMaker build(int frameLength, int hopLength, boolean realInput, FftEngine fftEngine, ForkJoinPool threadPool, int maxSignalLength){
+        if(threadPool == null){
+            return build(frameLength, hopLength, maxSignalLength, realInput, fftEngine, new ForkJoinPool(Runtime.getRuntime().availableProcessors()), true);
+        }
+
+        return build(frameLength, hopLength, maxSignalLength, realInput, fftEngine, threadPool, false);
+    }
+
+    private static SpectrogramMaker build(int frameLength, int hopLength, int maxSignalLength, boolean realInput, FftEngine fftEngine, ForkJoinPool threadPool, boolean ownsThreadPool){
+        int fftLength = realInput? frameLength / 2 : frameLength;
+        if(fftEngine.getLength() != fftLength){
+            throw new IllegalArgumentException("FFT engine of length " + fftEngine.getLength() + " cannot transform frames of length " + fftLength);
+        }
 
         float[] fftWindow = createHannWindow(frameLength);
-        int[] shuffledIndices = createShuffledIndices(frameLength);
-        int[][][] pairIndexLookup = generateIndexPairs(frameLength, maxOrder);
-        float[][] eCoefficients = getECoefficients(frameLength);
+        float[] splitCoefficients = realInput? Radix2FftEngine.getECoefficients(frameLength) : null;
+        int[] loadOffsets = createLoadOffsets(fftEngine.getShuffledIndices(), realInput);
+        float[] loadWindow = new float[loadOffsets.length];
+        for(int i=0; i<loadOffsets.length; i++){
+            loadWindow[i] = fftWindow[loadOffsets[i]];
+        }
 
-        return new SpectrogramMaker(frameLength, hopLength, shuffledIndices, pairIndexLookup, eCoefficients, fftWindow);
+        return new SpectrogramMaker(frameLength, hopLength, maxSignalLength, realInput, fftEngine, splitCoefficients, loadOffsets, loadWindow, threadPool, ownsThreadPool);
     }
 
-    //Strictly non-concurrent! concurrent invocations will corrupt all running calculations
     //Creates a spectrogram from the given signal using the Short-time Fourier Transform
     //The spectrogram returned is the transpose of the standard shape, as the recognition model input is a transposed spectrogram
-    public synchronized float[][] transform(float[] signal){
-        float[] paddedSignal = ArrayUtils.reflectivePad(signal, this.frameLength / 2);
-
-        CountDownLatch latch = new CountDownLatch(threadCount);
-        for(int threadId=0; threadId<threadCount; threadId++) {
-            int finalThreadId = threadId;
-            threadPool.execute(() -> {
-                //Define the range of frames the current TPE worker is responsible for
-                int startFrameIdx = (int)Math.floor(kIndices[finalThreadId]);
-                int endFrameIdx = (int)Math.floor(kIndices[finalThreadId+1]);
-                long start, end;
-                long paddedSignalCopies = 0;
-                long windowing = 0;
-                long frameShuffling = 0;
-                long fftCalls = 0;
-                long absValues = 0;
+    //It holds getHopCount(signal.length) columns, and belongs to the caller, who may hand it back via recycle() once it is no longer needed
+    public float[][] transform(float[] signal){
+        float[][] spectrogram = new float[getHopCount(signal.length)][];
+        for(int k=0; k<spectrogram.length; k++){
+            float[] column = columnPool.poll();
+            spectrogram[k] = column != null? column : new float[getBinCount()];
+        }
 
-                for(int k=startFrameIdx; k<endFrameIdx; k++){
-                    //Extract the k'th frame from the padded signal
-                    System.arraycopy(paddedSignal, k*this.hopLength, frames[k], 0, this.frameLength);
+        return transform(signal, spectrogram);
+    }
 
-                    //Window the frame by multiplying with the window array
-                    ArrayUtils.ipMultiply(frames[k], fftWindow);
+    //Same as transform(signal), but writes the spectrogram into the given output (which must be at least getHopCount(signal.length) x binCount)
+    public float[][] transform(float[] signal, float[][] spectrogram){
+        return transform(signal, spectrogram, null);
+    }
 
-                    //Shuffle the windowed frame to reorder the frame for the FFT invocation
-                    float[] shuffledFrame = shuffleFrame(frames[k]);
+    /* Same as transform(signal, output), but every spectrogram column is passed through the column mapper before being written to the output
+     * This fuses later stages (such as the mel-scale conversion) into the frame loop, without ever materializing the full linear spectrogram:
+     * each column only lives in the workspace of the thread that computed it.
+     * Only the first getHopCount(signal.length) rows of the output are written*/
+    public float[][] transform(float[] signal, float[][] output, ColumnMapper columnMapper){
+        return transform(signal, output, columnMapper, 0, getHopCount(signal.length));
+    }
 
-                    //Obtain the FFT coefficients of the frame and save their absolute values (complex numbers)
-                    fastFourierTransform(shuffledFrame, finalThreadId);
+    //Same as transform(signal, output, columnMapper), but only computes (and writes) the frames [startFrameIdx, endFrameIdx)
+    public float[][] transform(float[] signal, float[][] output, ColumnMapper columnMapper, int startFrameIdx, int endFrameIdx){
+        transformFrames(signal, output, null, columnMapper, startFrameIdx, endFrameIdx);
+        return output;
+    }
 
-                    //The results are mirrored around the center, meaning we can discard the latter half of the FFT coefficients
-                    //The shorter output array spectrogram[k] will ensure ArrayUtils.abs() does that automatically
-                    ArrayUtils.abs(fftStepResults[finalThreadId], spectrogram[k]);
-                }
+    //Same as transform(signal, output), but writes column k into row k of a matrix (which must be at least getHopCount(signal.length) x binCount)
+    public FloatMatrix transform(float[] signal, FloatMatrix output){
+        return transform(signal, output, null);
+    }
+
+    //Same as transform(signal, output, columnMapper), with every mapped column written into its row of the matrix
+    public FloatMatrix transform(float[] signal, FloatMatrix output, ColumnMapper columnMapper){
+        return transform(signal, output, columnMapper, 0, getHopCount(signal.length));
+    }
+
+    public FloatMatrix transform(float[] signal, FloatMatrix output, ColumnMapper columnMapper, int startFrameIdx, int endFrameIdx){
+        if(endFrameIdx > output.getRows()){
+            throw new IllegalArgumentException("Cannot write frame " + (endFrameIdx - 1) + " into a matrix of " + output.getRows() + " rows");
+        }
+
+        transformFrames(signal, null, output, columnMapper, startFrameIdx, endFrameIdx);
+        return output;
+    }
 
-                //Signal the main thread this batch has finished
-                latch.countDown();
-            });
+    //Computes the frames [startFrameIdx, endFrameIdx) into either the rows of an array or the rows of a matrix
+    private void transformFrames(float[] signal, float[][] output, FloatMatrix matrix, ColumnMapper columnMapper, int startFrameIdx, int endFrameIdx){
+        if(signal.length > maxSignalLength){
+            throw new IllegalArgumentException("Cannot transform " + signal.length + " samples, as the spectrogram maker only fits " + maxSignalLength);
+        }
+        if(startFrameIdx < 0 || endFrameIdx > getHopCount(signal.length)){
+            throw new IllegalArgumentException("Frames [" + startFrameIdx + ", " + endFrameIdx + ") are out of range for a signal of " + signal.length + " samples");
+        }
+        if(startFrameIdx >= endFrameIdx){
+            return;
+        }
+
+        //The padded signal is only read by this invocation, so it goes back to the pool once all frames are done
+        float[] paddedSignal = paddedSignalPool.poll();
+        if(paddedSignal == null){
+            paddedSignal = new float[maxSignalLength + 2 * (this.frameLength / 2)];
         }
 
         try {
-            latch.await();
-            return spectrogram;
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            ArrayUtils.reflectivePad(signal, this.frameLength / 2, paddedSignal);
+            threadPool.invoke(new FrameBatch(paddedSignal, output, matrix, columnMapper, startFrameIdx, endFrameIdx));
+        } finally {
+            paddedSignalPool.offer(paddedSignal);
+        }
+    }
+
+    //Stops the thread pool, if it was created by this SpectrogramMaker. Calling transform() afterwards is not allowed
+    public void shutdown(){
+        if(ownsThreadPool){
+            threadPool.shutdown();
         }
     }
 
-    //Shuffles the given frame using the index order provided
-    private float[] shuffleFrame(float[] frame){
-        float[] shuffledFrame = new float[frame.length];
-        for(int i=0; i<frame.length; i++){
-            shuffledFrame[i] = frame[this.shuffledIndices[i]];
+    //Hands the columns of a spectrogram returned by transform() back to the pool. The caller must not use it afterwards
+    public void recycle(float[][] spectrogram){
+        for(float[] column : spectrogram){
+            if(column.length == getBinCount() && !columnPool.offer(column)){
+                return;
+            }
         }
+    }
 
-        return shuffledFrame;
+    public int getFrameLength() {
+        return frameLength;
     }
 
+    public int getHopLength() {
+        return hopLength;
+    }
 
-    /* Performs the fast fourier transform on a single frame vector
-     * The standard textbook implementations of FFT use recursion, but the call stack can get quite large for long signals which reduces performance.
-     * That's why I opted for a non recursive implementation (breadth-first, using a for-loop)
-     * A non-recursive implementation can be made (as written here, for example).
-     * The recursive version of this algorithm is explained in https://en.wikipedia.org/wiki/Cooley%E2%80%93Tukey_FFT_algorithm*/
-    private void fastFourierTransform (float[] shuffledFrame, int workerId){
-        //Cast frame to complex numbers
-        ArrayUtils.complex(shuffledFrame, fftStepResults[workerId]);
-        int eSpacing = frameLength;
-
-        //Iterate over the signal log2(n) times, where n = len(shuffledFrame)
-        for(int order = 0; order< fftIterationLimit; order++){
-            //Extract the constants for the current iteration of the outer loop
-            int[][] currentLookup = this.pairIndexLookup[order];
-            eSpacing *= 0.5;
-
-            //Iterate over the index pairs in currentLookup
-            for(int pairIdx=0; pairIdx<currentLookup.length; pairIdx++){
-                //Extract the required indices from the index lookup and from the e lookup
-                int[] currentPair = currentLookup[pairIdx];
-                int leftIdx = currentPair[0];
-                int rightIdx = currentPair[1];
-                int eIdx = (pairIdx*eSpacing) % shuffledFrame.length;
-
-                //And use them to obtain the correct arguments for the calculation
-                float[] leftArg = fftStepResults[workerId][leftIdx];
-                float[] rightArg = fftStepResults[workerId][rightIdx];
-                float[] eCoefficient = this.eCoefficients[eIdx];
-
-                //The computation itself is quite simple: left + e*right
-                ComplexUtils.add(
-                    leftArg,
-                    ComplexUtils.multiply(eCoefficient, rightArg, fftMultiplications[workerId]),
-                    fftComputations[workerId][pairIdx]
-                );
+    public int getMaxSignalLength() {
+        return maxSignalLength;
+    }
+
+    //The number of columns in the spectrogram of the longest signal accepted
+    public int getHopCount() {
+        return maxHopCount;
+    }
+
+    //The number of columns in the spectrogram of a signal of the given length (zero for signals shorter than a single frame)
+    public int getHopCount(int signalLength) {
+        if(signalLength < frameLength){
+            return 0;
+        }
+
+        return 1 + (signalLength - frameLength) / hopLength;
+    }
+
+    //The number of frequency bins in every spectrogram column (the latter half of the FFT coefficients is discarded)
+    public int getBinCount() {
+        return frameLength / 2 + 1;
+    }
+
+    //Creates the buffers a single frame is transformed in
+    Workspace createWorkspace(){
+        return new Workspace(new float[2 * fftLength], fftEngine.createScratch(), new float[getBinCount()]);
+    }
+
+    /* Computes the absolute values of the FFT coefficients for the frame starting at paddedSignal[frameStart]
+     * The frame is read from the padded signal exactly once: every sample is windowed while being scattered into the shuffled order of the FFT engine.
+     * The engine then transforms the frame in-place, so no memory is allocated (or copied between buffers) along the way*/
+    void transformFrame(float[] paddedSignal, int frameStart, Workspace workspace, float[] output){
+        float[] fftFrame = workspace.fftFrame;
+
+        if(realInput){
+            //Pack the windowed frame as half as many complex numbers (even samples as the real part, odd samples as the imaginary part)
+            for(int i=0; i<loadOffsets.length; i++){
+                fftFrame[i] = paddedSignal[frameStart + loadOffsets[i]] * loadWindow[i];
             }
 
-            //Set the results for the current step (of the outer loop)
-            for(int i = 0; i< fftComputations[workerId].length; i++){
-                System.arraycopy(fftComputations[workerId][i], 0, fftStepResults[workerId][i], 0, 2);
+            //Obtain the FFT coefficients of the packed frame, and split them into the absolute values of the full-length FFT
+            fftEngine.transform(fftFrame, workspace.fftScratch);
+            splitSpectrum(fftFrame, output);
+        }else {
+            //Cast the windowed frame to complex numbers
+            for(int i=0; i<loadOffsets.length; i++){
+                fftFrame[2*i] = paddedSignal[frameStart + loadOffsets[i]] * loadWindow[i];
+                fftFrame[2*i + 1] = 0.0f;
             }
+
+            //Obtain the FFT coefficients of the frame and save their absolute values (complex numbers)
+            fftEngine.transform(fftFrame, workspace.fftScratch);
+
+            //The results are mirrored around the center, meaning we can discard the latter half of the FFT coefficients
+            //The shorter output array will ensure ArrayUtils.absInterleaved() does that automatically
+            ArrayUtils.absInterleaved(fftFrame, output);
+        }
+    }
+
+    /* Recovers the absolute values of the frameLength-point FFT from the frameLength/2-point FFT of a packed frame
+     * With Z being the FFT of the packed frame, and M = frameLength/2:
+     *   E[k] = (Z[k] + conj(Z[M-k])) / 2 is the FFT of the even samples
+     *   O[k] = (Z[k] - conj(Z[M-k])) / 2i is the FFT of the odd samples
+     *   X[k] = E[k] + e^(-2*pi*i*k/frameLength) * O[k]
+     * The indices wrap around, so Z[M] is the same as Z[0]*/
+    private void splitSpectrum(float[] packedSpectrum, float[] output){
+        for(int k=0; k<output.length; k++){
+            int z = 2 * (k % fftLength);
+            int mirror = 2 * ((fftLength - k) % fftLength);
+            float eReal = this.splitCoefficients[2*k];
+            float eImag = this.splitCoefficients[2*k + 1];
+
+            float evenReal = 0.5f * (packedSpectrum[z] + packedSpectrum[mirror]);
+            float evenImag = 0.5f * (packedSpectrum[z+1] - packedSpectrum[mirror+1]);
+            float oddReal = 0.5f * (packedSpectrum[z+1] + packedSpectrum[mirror+1]);
+            float oddImag = -0.5f * (packedSpectrum[z] - packedSpectrum[mirror]);
+
+            float real = evenReal + eReal * oddReal - eImag * oddImag;
+            float imag = evenImag + eReal * oddImag + eImag * oddReal;
+            output[k] = (float)Math.sqrt(real * real + imag * imag);
         }
     }
 
@@ -179,83 +314,101 @@ public class SpectrogramMaker {
         return window;
     }
 
-    /* One of the steps for implementing a non-recursive FFT is an index shuffle of the input.
-     * The shuffle can be achieved using bit-level hacking, or the algorithm below.
-     * Because the index shuffle is only calculated once (all signals will be of the same length)
-     * It can be stored somewhere in the mobile app, without needing to calculate it again.
-     * That's why I chose this algorithm for clarity (over the bit-level equivalent)*/
-    private static int[] createShuffledIndices(int frameLength){
-        //Initialize the index orderng to the natural ordering [0, 1, 2, ...]
-        int[] naturalOrdering = new int[frameLength];
-        for(int i=0; i<frameLength; i++){
-            naturalOrdering[i] = i;
+    //Maps every float loaded into the FFT engine to the offset of its sample within the frame
+    //In real-input mode, the i'th complex number of the shuffled frame is made of samples 2*shuffledIndices[i] and 2*shuffledIndices[i] + 1
+    //Otherwise, only the real part of every complex number is loaded from the frame
+    private static int[] createLoadOffsets(int[] shuffledIndices, boolean realInput){
+        if(!realInput){
+            return shuffledIndices.clone();
         }
 
-        //Create a queue to hold the current order, starting with the natural index order
-        //The queue mimics a jagged array, with arrays getting shorter all the time
-        int iterationLimit = (int)(Math.log(frameLength) / Math.log(2)) - 1;
-        ArrayDeque<int[]> shuffledFrame = new ArrayDeque<>();
-        shuffledFrame.addLast(naturalOrdering);
-
-        //Run for {iterationLimit} iterations
-        for(int iter=0; iter<iterationLimit; iter++){
-            int shuffledCoefficients = 0;
-            while(shuffledCoefficients < frameLength){
-                //In each iteration we pop the first element, and split it by the even and odd indices of the subrame (frame idx, not frame value)
-                int[] currentSubframe = shuffledFrame.removeFirst();
-                int[] evenIndices = ArrayUtils.downsample(currentSubframe, 2, 0);
-                int[] oddIndices = ArrayUtils.downsample(currentSubframe, 2, 1);
-
-                //We then push both index arrays to the queue
-                shuffledCoefficients += currentSubframe.length;
-                shuffledFrame.addLast(evenIndices);
-                shuffledFrame.addLast(oddIndices);
-            }
+        int[] loadOffsets = new int[2 * shuffledIndices.length];
+        for(int i=0; i<shuffledIndices.length; i++){
+            loadOffsets[2*i] = 2 * shuffledIndices[i];
+            loadOffsets[2*i + 1] = 2 * shuffledIndices[i] + 1;
         }
 
-        //By this stage the array has been fully shuffled
-        //(when the arrays in the queue are of size 2, additional shuffles do not change the order of the values across all arrays)
-        //We can concat the arrays and return them
-        return ArrayUtils.concat(shuffledFrame.toArray(new int[0][0]));
+        return loadOffsets;
     }
 
-    /* In the non-recursive FFT, we perform multiplications between elements at certain indices at every iteration of the main loop body
-     * Since the signals are of the same length, we can pre-calculate the index lookup
-     *
-     * when n = windowLength
-     * Dimension 0 corresponds to the k-th iteration of the main loop (of which there are log(n) iterations)
-     * Dimension 1 corresponds to the l-th  lookup call (of which there are n calls every loop iteration)
-     * Dimension 2 corresponds to the signal indices to retrieve (two indices per lookup invocation)
-
-     * This generation method uses four nested loops, but is still O(n) in time complexity*/
-    private static int[][][] generateIndexPairs(int frameLength, int maxOrder){
-        int[][][] indexPairs = new int[maxOrder][frameLength][2];
-
-        for(int order=0; order<maxOrder; order++){
-            int pairsPerGroup = (int)Math.pow(2, order);
-            int groupsPerIdxTable = (int)(0.5 * frameLength / pairsPerGroup);
-            int pairIdx = 0;
-
-            for(int groupIdx=0; groupIdx<groupsPerIdxTable; groupIdx++){
-                for(int foo=0; foo<2; foo++){
-                    for(int ppgIdx=0; ppgIdx<pairsPerGroup; pairIdx++, ppgIdx++){
-                        indexPairs[order][pairIdx][0] = 2*pairsPerGroup*groupIdx + ppgIdx;
-                        indexPairs[order][pairIdx][1] = 2*pairsPerGroup*groupIdx + pairsPerGroup + ppgIdx;
+    //A range of frames [startFrameIdx, endFrameIdx), computed as a single task or split into two halves
+    private class FrameBatch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final float[] paddedSignal;
+        private final float[][] output; //null if the frames are written into a matrix
+        private final FloatMatrix matrix; //null if the frames are written into an array of rows
+        private final ColumnMapper columnMapper; //null if the spectrogram columns are written to the output as-is
+        private final int startFrameIdx;
+        private final int endFrameIdx;
+
+        private FrameBatch(float[] paddedSignal, float[][] output, FloatMatrix matrix, ColumnMapper columnMapper, int startFrameIdx, int endFrameIdx){
+            this.paddedSignal = paddedSignal;
+            this.output = output;
+            this.matrix = matrix;
+            this.columnMapper = columnMapper;
+            this.startFrameIdx = startFrameIdx;
+            this.endFrameIdx = endFrameIdx;
+        }
+
+        @Override
+        protected void compute() {
+            //Keep splitting large batches, but stop early (adapting the batch size) once there are enough queued batches for idle threads to steal
+            int batchSize = endFrameIdx - startFrameIdx;
+            if(batchSize > minBatchSize && getSurplusQueuedTaskCount() <= batchesPerThread){
+                int middleFrameIdx = startFrameIdx + batchSize / 2;
+                invokeAll(
+                    new FrameBatch(paddedSignal, output, matrix, columnMapper, startFrameIdx, middleFrameIdx),
+                    new FrameBatch(paddedSignal, output, matrix, columnMapper, middleFrameIdx, endFrameIdx)
+                );
+                return;
+            }
+
+            //Only batches that are actually running hold a workspace, so there should always be a free one
+            Workspace workspace = workspacePool.poll();
+            if(workspace == null){
+                workspace = createWorkspace();
+            }
+
+            try {
+                for(int k=startFrameIdx; k<endFrameIdx; k++){
+                    if(matrix == null && columnMapper == null){
+                        transformFrame(paddedSignal, k * hopLength, workspace, output[k]);
+                        continue;
+                    }
+
+                    //Mapped columns (and every column of a matrix) go through the workspace, then straight into their row
+                    transformFrame(paddedSignal, k * hopLength, workspace, workspace.column);
+                    float[] row = matrix != null? matrix.getData() : output[k];
+                    int rowOffset = matrix != null? matrix.getRowOffset(k) : 0;
+                    if(columnMapper == null){
+                        System.arraycopy(workspace.column, 0, row, rowOffset, workspace.column.length);
+                    }else{
+                        columnMapper.map(workspace.column, row, rowOffset);
                     }
                 }
+            } finally {
+                workspacePool.offer(workspace);
             }
         }
-
-        return indexPairs;
     }
 
-    //Generates {amount} complex numbers, evenly spaced along the unit circle in the complex plane
-    private static float[][] getECoefficients(int amount){
-        float[][] exponents = new float[amount][2];
-        for(int i=0; i<amount; i++){
-            exponents[i] = new float[]{0, -2*(float)Math.PI*i/amount};
+    //The buffers a single frame is transformed in. Every thread transforming frames concurrently needs its own workspace
+    static final class Workspace {
+        final float[] fftFrame; //the frame being transformed, as interleaved complex numbers
+        final float[] fftScratch; //the scratch space handed to the FFT engine
+        final float[] column; //a single spectrogram column, handed to the column mapper (if any)
+
+        private Workspace(float[] fftFrame, float[] fftScratch, float[] column){
+            this.fftFrame = fftFrame;
+            this.fftScratch = fftScratch;
+            this.column = column;
         }
+    }
 
-        return ArrayUtils.ipExp(exponents);
+    //Converts a single spectrogram column into output[outputOffset, ...), where the output is a row of an array or the backing array of a matrix
+    //Invoked concurrently by all threads of the pool
+    public interface ColumnMapper {
+        void map(float[] column, float[] output, int outputOffset);
     }
 }
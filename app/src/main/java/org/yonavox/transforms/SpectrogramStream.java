@@ -0,0 +1,112 @@
+package org.yonavox.transforms;
+
+/* An incremental Short-time Fourier Transform, sharing the lookup tables of a SpectrogramMaker
+ * Callers push (downsampled) samples as they arrive, and poll every spectrogram column once enough samples were pushed to complete its frame.
+ * Column k of the stream is identical to column k of SpectrogramMaker.transform() for any signal starting with the pushed samples,
+ * so by the time an utterance ends, almost all of its columns have already been computed.
+ *
+ * Like SpectrogramMaker.transform(), the signal is padded on the left with its own reflection,
+ * which is why the first column only becomes available after frameLength/2 + 1 samples were pushed.
+ * Not thread safe: a stream should only be pushed to and polled from by a single thread at a time*/
+public class SpectrogramStream {
+    private static final int INITIAL_FRAMES = 4; //the buffer initially fits this many frames, and only grows if samples are pushed faster than columns are polled
+
+    private final SpectrogramMaker spectroMaker;
+    private final SpectrogramMaker.Workspace workspace;
+    private final int frameLength;
+    private final int hopLength;
+    private final int padding;
+
+    private float[] buffer; //holds the padded signal, starting at padded index bufferStart
+    private long bufferStart;
+    private long paddedLength; //the number of padded samples written so far (padding + pushed samples)
+    private long nextFrame;
+
+    private SpectrogramStream(SpectrogramMaker spectroMaker) {
+        this.spectroMaker = spectroMaker;
+        this.workspace = spectroMaker.createWorkspace();
+        this.frameLength = spectroMaker.getFrameLength();
+        this.hopLength = spectroMaker.getHopLength();
+        this.padding = frameLength / 2;
+        this.buffer = new float[INITIAL_FRAMES * frameLength];
+        reset();
+    }
+
+    public static SpectrogramStream build(SpectrogramMaker spectroMaker){
+        return new SpectrogramStream(spectroMaker);
+    }
+
+    //Discards all pushed samples, so that the next sample pushed is the first sample of a new signal
+    public void reset(){
+        bufferStart = 0;
+        paddedLength = padding;
+        nextFrame = 0;
+    }
+
+    public void push(float[] samples){
+        push(samples, 0, samples.length);
+    }
+
+    //Appends samples[offset, offset+length) to the signal
+    public void push(float[] samples, int offset, int length){
+        ensureCapacity(length);
+
+        long pushedBefore = getSamplesPushed();
+        System.arraycopy(samples, offset, buffer, (int)(paddedLength - bufferStart), length);
+        paddedLength += length;
+
+        //Once sample #padding arrives, the reflection of samples 1...padding can be written in front of the signal
+        if(pushedBefore <= padding && padding < getSamplesPushed()){
+            for(int i=0; i<padding; i++){
+                buffer[i] = buffer[2 * padding - i];
+            }
+        }
+    }
+
+    //The number of samples pushed since the stream was created (or last reset)
+    public long getSamplesPushed(){
+        return paddedLength - padding;
+    }
+
+    //The index of the next column returned by pollColumn()
+    public long getNextFrame(){
+        return nextFrame;
+    }
+
+    //Returns true if enough samples were pushed to compute the next column
+    public boolean hasColumn(){
+        return getSamplesPushed() > padding && nextFrame * hopLength + frameLength <= paddedLength;
+    }
+
+    /* Computes the next column into the output array (which must hold spectroMaker.getBinCount() floats)
+     * Returns the frame index of the column, or -1 if there are not enough samples to complete it yet*/
+    public long pollColumn(float[] output){
+        if(!hasColumn()){
+            return -1;
+        }
+
+        long frame = nextFrame++;
+        spectroMaker.transformFrame(buffer, (int)(frame * hopLength - bufferStart), workspace, output);
+        return frame;
+    }
+
+    //Makes room for {length} more samples at the end of the buffer, by dropping samples no pending frame needs (and growing the buffer if that is not enough)
+    private void ensureCapacity(int length){
+        long bufferEnd = bufferStart + buffer.length;
+        if(paddedLength + length <= bufferEnd){
+            return;
+        }
+
+        //Until the reflection is written, the start of the padded signal must be kept
+        long keepFrom = getSamplesPushed() > padding? Math.max(bufferStart, nextFrame * hopLength) : bufferStart;
+        int keptLength = (int)(paddedLength - keepFrom);
+        float[] target = buffer;
+        if(keptLength + length > buffer.length){
+            target = new float[Math.max(2 * buffer.length, keptLength + length)];
+        }
+
+        System.arraycopy(buffer, (int)(keepFrom - bufferStart), target, 0, keptLength);
+        buffer = target;
+        bufferStart = keepFrom;
+    }
+}
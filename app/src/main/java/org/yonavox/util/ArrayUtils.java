@@ -343,6 +343,20 @@ public class ArrayUtils {
         return output;
     }
 
+    //Returns the absolute values of the interleaved complex numbers in z
+    //When the output is shorter than z, only the first output.length numbers are considered
+    public static float[] absInterleaved(float[] z){
+        return absInterleaved(z, new float[z.length / 2]);
+    }
+
+    public static float[] absInterleaved(float[] z, float[] output){
+        for(int i=0; i<output.length; i++){
+            output[i] = ComplexUtils.abs(z, 2*i);
+        }
+
+        return output;
+    }
+
     public static float[] real(float[][] f){
         return real(f, new float[f.length]);
     }
@@ -533,14 +547,17 @@ public class ArrayUtils {
     //pad the given array with it's own reflection
     //i.e. pad([1,2,3,4,5], 2) = [3,2,1,2,3,4,5,4,3]
     public static float[] reflectivePad(float[] f, int totalPadding){
-        float[] output = zeroPad(f, 2 * totalPadding);
-        float[] left = Arrays.copyOfRange(f, 1, totalPadding + 1);
-        float[] right = Arrays.copyOfRange(f, f.length-totalPadding-2, f.length-2);
+        return reflectivePad(f, totalPadding, new float[f.length + 2 * totalPadding]);
+    }
+
+    //Same as reflectivePad(f, totalPadding), but writes the padded array into the first f.length + 2*totalPadding elements of the output
+    public static float[] reflectivePad(float[] f, int totalPadding, float[] output){
+        System.arraycopy(f, 0, output, totalPadding, f.length);
+        for(int i=0; i<totalPadding; i++){
+            output[i] = f[totalPadding - i];
+            output[f.length + totalPadding + i] = f[f.length - 2 - i];
+        }
 
-        float[] leftFlip = flip(left);
-        float[] rightFlip = flip(right);
-        System.arraycopy(leftFlip, 0, output, 0, leftFlip.length);
-        System.arraycopy(rightFlip, 0, output, f.length-rightFlip.length-1, rightFlip.length);
         return output;
     }
 
@@ -718,6 +735,28 @@ public class ArrayUtils {
         return output;
     }
 
+    public static FloatMatrix maximum(FloatMatrix a, float b){
+        return maximum(a, b, FloatMatrix.build(a.getRows(), a.getCols()));
+    }
+
+    public static FloatMatrix ipMaximum(FloatMatrix a, float b){
+        return maximum(a, b, a);
+    }
+
+    public static FloatMatrix maximum(FloatMatrix a, float b, FloatMatrix output){
+        float[] in = a.getData();
+        float[] out = output.getData();
+        for(int i=0; i<output.getRows(); i++){
+            int inRow = a.getRowOffset(i);
+            int outRow = output.getRowOffset(i);
+            for(int j=0; j<output.getCols(); j++){
+                out[outRow + j] = Math.max(in[inRow + j], b);
+            }
+        }
+
+        return output;
+    }
+
 
     //Return the element-wise maximum between the two arrays
     public static float[][] maximum(float[][] a, float[][] b){
@@ -854,6 +893,34 @@ public class ArrayUtils {
         return max;
     }
 
+    //Returns the maximum value of the given matrix
+    public static float max(FloatMatrix f){
+        float max = -Float.MAX_VALUE;
+        float[] data = f.getData();
+        for(int i=0; i<f.getRows(); i++){
+            int row = f.getRowOffset(i);
+            for(int j=0; j<f.getCols(); j++){
+                max = Math.max(data[row + j], max);
+            }
+        }
+
+        return max;
+    }
+
+    //Returns the minimum value of the given matrix
+    public static float min(FloatMatrix f){
+        float min = Float.MAX_VALUE;
+        float[] data = f.getData();
+        for(int i=0; i<f.getRows(); i++){
+            int row = f.getRowOffset(i);
+            for(int j=0; j<f.getCols(); j++){
+                min = Math.min(data[row + j], min);
+            }
+        }
+
+        return min;
+    }
+
     //Returns the index of the maximum value in a given array
     public static int indexOfMax(float[] f){
         float max = -Float.MAX_VALUE; //Why on earth use MAX_VALUE? https://stackoverflow.com/questions/3884793/why-is-double-min-value-in-not-negative
@@ -893,6 +960,38 @@ public class ArrayUtils {
         return means;
     }
 
+    public static float[] meanOfRows(FloatMatrix f){
+        float[] means = new float[f.getRows()];
+        float[] data = f.getData();
+        for(int i=0; i<f.getRows(); i++){
+            int row = f.getRowOffset(i);
+            float sum = 0;
+            for(int j=0; j<f.getCols(); j++){
+                sum += data[row + j];
+            }
+
+            means[i] = sum / f.getCols();
+        }
+
+        return means;
+    }
+
+    public static float[] meanOfCols(FloatMatrix f){
+        float[] means = new float[f.getCols()];
+        float[] data = f.getData();
+        for(int i=0; i<f.getRows(); i++){
+            int row = f.getRowOffset(i);
+            for(int j=0; j<f.getCols(); j++){
+                means[j] += data[row + j];
+            }
+        }
+        for(int j=0; j<means.length; j++){
+            means[j] /= f.getRows();
+        }
+
+        return means;
+    }
+
     public static float[] stdOfRows(float[][] f){
         return stdOfRows(f, meanOfRows(f));
     }
@@ -9,7 +9,10 @@ package org.yonavox.util;
 * each complex number of the form a + bi is represented with the array [a, b]
 *
 * pros: speed (!)
-* cons: no type safety or checks*/
+* cons: no type safety or checks
+*
+* Long vectors of complex numbers (i.e. FFT workspaces) are stored as a single interleaved array instead: [a0, b0, a1, b1, ...]
+* The overloads accepting (array, offset) pairs operate on the complex number starting at array[offset]*/
 public class ComplexUtils {
     //Casts the real number f to the complex number f + 0i
     public static float[] complex(float f) {
@@ -180,4 +183,27 @@ public class ComplexUtils {
         double selfNorm = Math.pow(z[0], 2) + Math.pow(z[1], 2);
         return (float)Math.sqrt(selfNorm);
     }
+
+    //Calculate the sum a + b of interleaved complex numbers, and saves the sum to {result} at {resultOffset}
+    public static float[] add(float[] a, int aOffset, float[] b, int bOffset, float[] result, int resultOffset) {
+        result[resultOffset] = a[aOffset] + b[bOffset];
+        result[resultOffset + 1] = a[aOffset + 1] + b[bOffset + 1];
+        return result;
+    }
+
+    //Calculate the product a * b of interleaved complex numbers, and saves the product to {result} at {resultOffset}
+    public static float[] multiply(float[] a, int aOffset, float[] b, int bOffset, float[] result, int resultOffset) {
+        float r0 = a[aOffset] * b[bOffset] - a[aOffset + 1] * b[bOffset + 1];
+        float r1 = a[aOffset] * b[bOffset + 1] + a[aOffset + 1] * b[bOffset];
+        result[resultOffset] = r0;
+        result[resultOffset + 1] = r1;
+        return result;
+    }
+
+    //Returns the absolute value of the interleaved complex number starting at z[offset]
+    public static float abs(float[] z, int offset) {
+        float real = z[offset];
+        float imag = z[offset + 1];
+        return (float)Math.sqrt(real * real + imag * imag);
+    }
 }
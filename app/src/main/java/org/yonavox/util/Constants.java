@@ -2,21 +2,29 @@ package org.yonavox.util;
 
 public class Constants {
     public static final String RAW_PCM_DATA = "raw.pcm.data";
+    public static final String RAW_PCM_OFFSET = "raw.pcm.offset";
     public static final String SENSIBO_API_KEY = "sensibo.api.key";
     public static final String SENSIBO_DEVICE_ID = "sensibo.device.id";
 
     public static final int SAMPLE_RATE = 44100;
+    public static final float PCM_16BIT_SCALE = 1.0f / 32768.0f; //maps 16 bit samples to the [-1, 1) range of float samples
     public static final int DOWNSAMPLE_COEFFICIENT = 5;
     public static final int DOWNSAMPLE_RATE = SAMPLE_RATE / DOWNSAMPLE_COEFFICIENT;
     public static final int SPECTROGRAM_TIMESTAMPS = 18664;
     public static final int CUTOFF_FREQUENCY = SAMPLE_RATE / (2 * DOWNSAMPLE_COEFFICIENT);
     public static final int FILTER_ORDER = 5;
+    public static final int DECIMATOR_TAPS = 12 * DOWNSAMPLE_COEFFICIENT + 1; //odd, so the FIR filter is centered on a tap
 
     public static final int FRAME_LENGTH = 1024;
     public static final int HOP_LENGTH = 128;
     public static final int MEL_BINS = 80;
     public static final int LOWER_EDGE_HERTZ = 0;
     public static final int UPPER_EDGE_HERTZ = CUTOFF_FREQUENCY;
+    public static final int FAST_LOG_BITS = 10; //decibels are within 4.2e-3 dB of Math.log10 (see FastLog)
+    public static final int PIPELINE_CHUNK_LENGTH = 8 * HOP_LENGTH; //in downsampled samples, so a recording is split into about 18 chunks
+    public static final int PIPELINE_QUEUE_CAPACITY = 4;
+    public static final int CACHED_RECORDINGS = 4; //the log-mel features of this many recordings are kept by the FeatureCache
+    public static final int CACHED_COLUMNS = 4 * (1 + (SPECTROGRAM_TIMESTAMPS - FRAME_LENGTH) / HOP_LENGTH); //enough for the columns of 4 recordings
 
     //UTTER_WINDOW_SIZE must be smaller than SILENCE_WINDOW_SIZE
     public static final int MIN_UTTERED_SAMPLES = (int)Math.floor(0.25 * SAMPLE_RATE);
@@ -26,4 +34,5 @@ public class Constants {
     public static final float SPEECH_AMPLITUDE = 5e-4f;
 
     public static final float EPSILON = 1e-12f;
+    public static final int METRICS_DUMP_INTERVAL = 20; //the metrics are dumped to the log after every this many transcriptions
 }
@@ -0,0 +1,66 @@
+package org.yonavox.util;
+
+/*A table-based log10 for floats, trading a bounded error for speed
+* Every positive float is 2^e * m, where e is its (unbiased) IEEE exponent and m is in [1, 2), so log2(x) = e + log2(m).
+* The exponent is read straight from the bits of the float, while log2(m) is looked up in a table indexed by the top tableBits bits of the mantissa.
+*
+* Each table entry covers the mantissas [1 + i/N, 1 + (i+1)/N) (N = 2^tableBits), and holds the log2 of the bucket's geometric mean.
+* The error is therefore at most half the log2-width of the widest (first) bucket: 0.5 * log2(1 + 1/N), i.e. 0.5 * log10(1 + 1/N) in log10 units
+* (with 10 table bits, that's about 2.1e-4, or 4.2e-3 decibels for amplitudes).
+*
+* Zero maps to -infinity (as with Math.log10), and subnormal floats are normalized before the lookup, so the bound holds for every positive float*/
+public class FastLog {
+    private static final int MANTISSA_BITS = 23;
+    private static final int EXPONENT_BIAS = 127;
+    private static final float LOG10_2 = (float)Math.log10(2);
+
+    private final float[] log10Mantissas; //log10 of the geometric mean of every mantissa bucket
+    private final int tableBits;
+
+    private FastLog(int tableBits){
+        this.tableBits = tableBits;
+
+        int bucketCount = 1 << tableBits;
+        this.log10Mantissas = new float[bucketCount];
+        for(int i=0; i<bucketCount; i++){
+            double lower = 1.0 + (double)i / bucketCount;
+            double upper = 1.0 + (double)(i + 1) / bucketCount;
+            log10Mantissas[i] = (float)(0.5 * (Math.log10(lower) + Math.log10(upper)));
+        }
+    }
+
+    public static FastLog build(int tableBits){
+        if(tableBits < 1 || tableBits > MANTISSA_BITS){
+            throw new IllegalArgumentException("The mantissa table must be indexed by 1 to " + MANTISSA_BITS + " bits, got " + tableBits);
+        }
+
+        return new FastLog(tableBits);
+    }
+
+    public int getTableBits(){
+        return tableBits;
+    }
+
+    //The maximal difference between log10(x) and Math.log10(x), for any positive float x (not counting the float rounding of the result)
+    public double getMaxError(){
+        return 0.5 * Math.log10(1.0 + 1.0 / (1 << tableBits));
+    }
+
+    //Returns log10(x) for a non-negative x, within getMaxError(). Negative numbers are treated as their absolute value
+    public float log10(float x){
+        int bits = Float.floatToRawIntBits(x) & 0x7fffffff;
+        int biasedExponent = bits >>> MANTISSA_BITS;
+        if(biasedExponent == 0){
+            if(bits == 0){
+                return Float.NEGATIVE_INFINITY;
+            }
+
+            //Subnormal: scale by 2^MANTISSA_BITS to make it a normal float, then take the scale back out of the exponent
+            bits = Float.floatToRawIntBits(Math.abs(x) * (1 << MANTISSA_BITS));
+            biasedExponent = (bits >>> MANTISSA_BITS) - MANTISSA_BITS;
+        }
+
+        int bucket = (bits >>> (MANTISSA_BITS - tableBits)) & ((1 << tableBits) - 1);
+        return (biasedExponent - EXPONENT_BIAS) * LOG10_2 + log10Mantissas[bucket];
+    }
+}
@@ -0,0 +1,138 @@
+package org.yonavox.util;
+
+import java.util.Arrays;
+
+/* A dense, row-major matrix of floats, backed by a single float[]
+ * Element (r, c) is stored at data[r * stride + c], where the stride is at least the number of columns (a larger stride pads every row).
+ * Unlike a float[][], a spectrogram stored this way is one allocation with no per-row objects, its rows are adjacent in memory,
+ * and (when contiguous) the backing array already is the flat input tensor of the recognition model, so it is handed over without copying.
+ * Not thread safe, although threads may write disjoint rows concurrently (as the spectrogram frame batches do)*/
+public final class FloatMatrix {
+    private final float[] data;
+    private final int rows;
+    private final int cols;
+    private final int stride;
+
+    private FloatMatrix(float[] data, int rows, int cols, int stride){
+        this.data = data;
+        this.rows = rows;
+        this.cols = cols;
+        this.stride = stride;
+    }
+
+    //A zero-filled, contiguous matrix
+    public static FloatMatrix build(int rows, int cols){
+        return wrap(new float[rows * cols], rows, cols, cols);
+    }
+
+    //A contiguous matrix backed by the given array (which is not copied)
+    public static FloatMatrix wrap(float[] data, int rows, int cols){
+        return wrap(data, rows, cols, cols);
+    }
+
+    //A matrix backed by the given array (which is not copied), where row r starts at data[r * stride]
+    public static FloatMatrix wrap(float[] data, int rows, int cols, int stride){
+        if(rows < 0 || cols < 0 || stride < cols){
+            throw new IllegalArgumentException("Invalid matrix of " + rows + " x " + cols + " with a stride of " + stride);
+        }
+        if(rows > 0 && (long)(rows - 1) * stride + cols > data.length){
+            throw new IllegalArgumentException("A matrix of " + rows + " x " + cols + " with a stride of " + stride + " does not fit in " + data.length + " floats");
+        }
+
+        return new FloatMatrix(data, rows, cols, stride);
+    }
+
+    //Copies a rectangular float[][] (with at least one row) into a new contiguous matrix
+    public static FloatMatrix fromArray(float[][] f){
+        FloatMatrix matrix = build(f.length, f[0].length);
+        for(int r=0; r<f.length; r++){
+            System.arraycopy(f[r], 0, matrix.data, r * matrix.stride, matrix.cols);
+        }
+
+        return matrix;
+    }
+
+    public float get(int row, int col){
+        return data[row * stride + col];
+    }
+
+    public void set(int row, int col, float value){
+        data[row * stride + col] = value;
+    }
+
+    //The index of element (row, 0) in the backing array
+    public int getRowOffset(int row){
+        return row * stride;
+    }
+
+    //The backing array, which is shared with the matrix (writing into it writes into the matrix)
+    public float[] getData(){
+        return data;
+    }
+
+    public int getRows(){
+        return rows;
+    }
+
+    public int getCols(){
+        return cols;
+    }
+
+    public int getStride(){
+        return stride;
+    }
+
+    //Returns true if the backing array holds exactly the elements of the matrix, row after row (so it can be used as a flat array as-is)
+    public boolean isContiguous(){
+        return stride == cols && data.length == rows * cols;
+    }
+
+    //The elements of the matrix as a flat row-major array: the backing array itself if the matrix is contiguous, or a compact copy otherwise
+    public float[] getContiguousData(){
+        if(isContiguous()){
+            return data;
+        }
+
+        float[] output = new float[rows * cols];
+        for(int r=0; r<rows; r++){
+            System.arraycopy(data, r * stride, output, r * cols, cols);
+        }
+
+        return output;
+    }
+
+    //A matrix of the first rowCount rows, sharing the backing array with this one
+    public FloatMatrix getTopRows(int rowCount){
+        if(rowCount < 0 || rowCount > rows){
+            throw new IllegalArgumentException("Cannot take " + rowCount + " rows of a matrix with " + rows + " rows");
+        }
+
+        return new FloatMatrix(data, rowCount, cols, stride);
+    }
+
+    //Copies a single row into the output (which must hold at least cols floats)
+    public float[] copyRow(int row, float[] output){
+        System.arraycopy(data, row * stride, output, 0, cols);
+        return output;
+    }
+
+    public float[] copyRow(int row){
+        return copyRow(row, new float[cols]);
+    }
+
+    //Copies the matrix into a new float[][], for code that still expects one
+    public float[][] toArray(){
+        float[][] output = new float[rows][];
+        for(int r=0; r<rows; r++){
+            output[r] = copyRow(r);
+        }
+
+        return output;
+    }
+
+    public void fill(float value){
+        for(int r=0; r<rows; r++){
+            Arrays.fill(data, r * stride, r * stride + cols, value);
+        }
+    }
+}
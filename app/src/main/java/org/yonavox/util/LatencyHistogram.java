@@ -0,0 +1,180 @@
+package org.yonavox.util;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* A fixed-bucket histogram of latencies (in nanoseconds), safe to record into from any number of threads without locking
+ * Every power of two is split into 4 buckets: a latency of (4 + s) * 2^(e-2) nanoseconds (for 0 <= s < 4) falls into bucket 4(e-1) + s (and latencies below 4 nanoseconds get a bucket each).
+ * So a bucket is at most 25% wider than its lower bound, and percentiles are reported as the upper bound of their bucket
+ * (capped by the largest latency recorded), which overestimates them by less than 25%.
+ * The 256 buckets cover every non-negative long, so recording never allocates and never overflows*/
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = 64 * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong totalNanos;
+    private final AtomicLong maxNanos;
+
+    private LatencyHistogram(String name){
+        this.name = name;
+        this.buckets = new AtomicLongArray(BUCKET_COUNT);
+        this.count = new AtomicLong();
+        this.totalNanos = new AtomicLong();
+        this.maxNanos = new AtomicLong();
+    }
+
+    public static LatencyHistogram build(String name){
+        return new LatencyHistogram(name);
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    //Negative latencies (e.g. from a clock going backwards) are recorded as 0
+    public void record(long nanos){
+        long latency = Math.max(0, nanos);
+        buckets.incrementAndGet(getBucket(latency));
+        count.incrementAndGet();
+        totalNanos.addAndGet(latency);
+
+        long max = maxNanos.get();
+        while(latency > max && !maxNanos.compareAndSet(max, latency)){
+            max = maxNanos.get();
+        }
+    }
+
+    //Records the time passed since startNanos (a value of System.nanoTime()), and returns it
+    public long recordSince(long startNanos){
+        long elapsed = System.nanoTime() - startNanos;
+        record(elapsed);
+        return elapsed;
+    }
+
+    public long getCount(){
+        return count.get();
+    }
+
+    //Takes a snapshot of the histogram. Latencies recorded while the snapshot is taken may be partially included
+    public Snapshot getSnapshot(){
+        long[] counts = new long[BUCKET_COUNT];
+        long snapshotCount = 0;
+        for(int i=0; i<BUCKET_COUNT; i++){
+            counts[i] = buckets.get(i);
+            snapshotCount += counts[i];
+        }
+
+        long max = maxNanos.get();
+        return new Snapshot(
+            name,
+            snapshotCount,
+            snapshotCount > 0? totalNanos.get() / snapshotCount : 0,
+            getPercentile(counts, snapshotCount, 0.50, max),
+            getPercentile(counts, snapshotCount, 0.95, max),
+            getPercentile(counts, snapshotCount, 0.99, max),
+            max
+        );
+    }
+
+    static int getBucket(long nanos){
+        if(nanos < SUB_BUCKETS){
+            return (int)nanos; //the first buckets hold a single value each
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int)(nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS * (exponent - SUB_BUCKET_BITS + 1) + subBucket;
+    }
+
+    //The largest latency that falls into the given bucket
+    static long getBucketUpperBound(int bucket){
+        if(bucket < SUB_BUCKETS){
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowerBound = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (width - 1) < 0? Long.MAX_VALUE : lowerBound + (width - 1);
+    }
+
+    private static long getPercentile(long[] counts, long totalCount, double percentile, long max){
+        if(totalCount == 0){
+            return 0;
+        }
+
+        long rank = (long)Math.ceil(percentile * totalCount);
+        long seen = 0;
+        for(int i=0; i<counts.length; i++){
+            seen += counts[i];
+            if(seen >= rank){
+                return Math.min(getBucketUpperBound(i), max);
+            }
+        }
+
+        return max;
+    }
+
+    //The count, mean, p50/p95/p99 and max latency of a histogram at some point in time
+    public static final class Snapshot {
+        private final String name;
+        private final long count;
+        private final long meanNanos;
+        private final long p50Nanos;
+        private final long p95Nanos;
+        private final long p99Nanos;
+        private final long maxNanos;
+
+        private Snapshot(String name, long count, long meanNanos, long p50Nanos, long p95Nanos, long p99Nanos, long maxNanos){
+            this.name = name;
+            this.count = count;
+            this.meanNanos = meanNanos;
+            this.p50Nanos = p50Nanos;
+            this.p95Nanos = p95Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public String getName(){
+            return name;
+        }
+
+        public long getCount(){
+            return count;
+        }
+
+        public long getMeanNanos(){
+            return meanNanos;
+        }
+
+        public long getP50Nanos(){
+            return p50Nanos;
+        }
+
+        public long getP95Nanos(){
+            return p95Nanos;
+        }
+
+        public long getP99Nanos(){
+            return p99Nanos;
+        }
+
+        public long getMaxNanos(){
+            return maxNanos;
+        }
+
+        @Override
+        public String toString(){
+            return name + ": count=" + count + " mean=" + toMillis(meanNanos) + " p50=" + toMillis(p50Nanos) + " p95=" + toMillis(p95Nanos) + " p99=" + toMillis(p99Nanos) + " max=" + toMillis(maxNanos);
+        }
+
+        private static String toMillis(long nanos){
+            return String.format(Locale.US, "%.3fms", nanos / 1e6);
+        }
+    }
+}
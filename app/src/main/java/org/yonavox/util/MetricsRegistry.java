@@ -0,0 +1,95 @@
+package org.yonavox.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/* An in-process registry of latency histograms and counters, looked up by name
+ * Histograms and counters are created on first use, and live as long as the registry. Recording into them never locks,
+ * so the hot paths only pay for a System.nanoTime() call and a few atomic increments.
+ * The global registry collects the metrics of the entire app, and is dumped by the TranscriptionService*/
+public class MetricsRegistry {
+    //Preprocessing stages
+    public static final String LOW_PASS = "preprocess.lowpass";
+    public static final String STFT = "preprocess.stft";
+    public static final String MEL = "preprocess.mel";
+    public static final String LOG_MEL = "preprocess.logmel"; //STFT + mel, where the two are fused (see LogMelExtractor)
+    public static final String PREPROCESS = "preprocess.total";
+    public static final String CACHED_COLUMNS = "preprocess.columns.cached";
+    public static final String COMPUTED_COLUMNS = "preprocess.columns.computed";
+    public static final String FEATURE_HITS = "preprocess.features.hits";
+    public static final String FEATURE_MISSES = "preprocess.features.misses";
+    public static final String FEATURE_SAVED_NANOS = "preprocess.features.savedNanos";
+
+    //Transcription stages
+    public static final String ENCODER = "transcribe.encoder";
+    public static final String DECODER_STEP = "transcribe.decoder.step";
+    public static final String SENSOR = "transcribe.sensor";
+    public static final String TRANSCRIBE = "transcribe.total";
+
+    private static final MetricsRegistry global = new MetricsRegistry();
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms;
+    private final ConcurrentMap<String, LongAdder> counters;
+
+    private MetricsRegistry(){
+        this.histograms = new ConcurrentHashMap<>();
+        this.counters = new ConcurrentHashMap<>();
+    }
+
+    public static MetricsRegistry build(){
+        return new MetricsRegistry();
+    }
+
+    public static MetricsRegistry getGlobal(){
+        return global;
+    }
+
+    public LatencyHistogram histogram(String name){
+        LatencyHistogram histogram = histograms.get(name);
+        return histogram != null? histogram : histograms.computeIfAbsent(name, LatencyHistogram::build);
+    }
+
+    public LongAdder counter(String name){
+        LongAdder counter = counters.get(name);
+        return counter != null? counter : counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    //Snapshots of every histogram, sorted by name
+    public List<LatencyHistogram.Snapshot> getSnapshots(){
+        List<LatencyHistogram.Snapshot> snapshots = new ArrayList<>();
+        for(LatencyHistogram histogram : new TreeMap<>(histograms).values()){
+            snapshots.add(histogram.getSnapshot());
+        }
+
+        return snapshots;
+    }
+
+    //The current value of every counter, sorted by name
+    public Map<String, Long> getCounts(){
+        Map<String, Long> counts = new TreeMap<>();
+        for(Map.Entry<String, LongAdder> entry : counters.entrySet()){
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+
+        return counts;
+    }
+
+    //A line per histogram (count, mean, p50, p95, p99 and max) followed by a line per counter
+    public String dump(){
+        StringJoiner lines = new StringJoiner("\n");
+        for(LatencyHistogram.Snapshot snapshot : getSnapshots()){
+            lines.add(snapshot.toString());
+        }
+        for(Map.Entry<String, Long> count : getCounts().entrySet()){
+            lines.add(count.getKey() + ": " + count.getValue());
+        }
+
+        return lines.toString();
+    }
+}
@@ -0,0 +1,202 @@
+package org.yonavox.util;
+
+import java.util.Arrays;
+
+/* Renders a scrolling window of the latest spectrogram columns into a reusable ARGB pixel buffer, without allocating
+ * Every column is a row of pixels (as in the transposed spectrograms fed to the recognition model), so the image is binCount pixels wide and windowLength pixels high.
+ * Rows are stored as a ring: appending a column overwrites the oldest row, and getOldestRow() is where the image starts.
+ * Values are normalized to the min and max of the window, and color-mapped through a precomputed 256-entry palette.
+ *
+ * The window min/max is tracked with monotonic queues of row extremes, so sliding the window costs O(1) amortized per row.
+ * Only the appended row is colored, unless the window min/max changed, in which case all rows are recolored (from the values kept alongside the pixels).
+ * This is plain Java, so it runs (and is benchmarked) off-device; copying the pixels into a Bitmap is left to PreprocessUtils.
+ * Not thread safe: a renderer should be appended to and drawn from by a single thread at a time*/
+public class SpectrogramRenderer {
+    private final int width; //the number of bins in every column
+    private final int height; //the number of columns in the window
+    private final int[] palette;
+
+    //Ring buffers of rows
+    private final float[] values;
+    private final int[] pixels;
+    private final float[] rowMins;
+    private final float[] rowMaxs;
+
+    //Monotonic queues of row sequence numbers, whose row extremes are increasing (for the min) and decreasing (for the max)
+    private final long[] minQueue;
+    private final long[] maxQueue;
+    private long minHead, minTail, maxHead, maxTail;
+
+    private long appended; //the number of columns appended since the renderer was built (or last reset)
+    private float min;
+    private float max;
+    private long recolorCount;
+
+    private SpectrogramRenderer(int width, int height, int[] palette){
+        this.width = width;
+        this.height = height;
+        this.palette = palette;
+        this.values = new float[width * height];
+        this.pixels = new int[width * height];
+        this.rowMins = new float[height];
+        this.rowMaxs = new float[height];
+        this.minQueue = new long[height];
+        this.maxQueue = new long[height];
+        reset();
+    }
+
+    //A grayscale renderer (as produced by the original toImage), holding the latest windowLength columns of binCount values
+    public static SpectrogramRenderer build(int binCount, int windowLength){
+        return build(binCount, windowLength, createGrayscalePalette());
+    }
+
+    //palette[i] is the ARGB color of the i-th of 256 levels, from the window min (level 0) to the window max (level 255)
+    public static SpectrogramRenderer build(int binCount, int windowLength, int[] palette){
+        if(binCount < 1 || windowLength < 1){
+            throw new IllegalArgumentException("Cannot render a window of " + windowLength + " columns of " + binCount + " bins");
+        }
+        if(palette.length != 256){
+            throw new IllegalArgumentException("A palette requires 256 colors, got " + palette.length);
+        }
+
+        return new SpectrogramRenderer(binCount, windowLength, palette.clone());
+    }
+
+    //Opaque gray levels, in the ARGB layout of android.graphics.Bitmap
+    public static int[] createGrayscalePalette(){
+        int[] palette = new int[256];
+        for(int level=0; level<256; level++){
+            // int color = (A & 0xff) << 24 | (B & 0xff) << 16 | (G & 0xff) << 8 | (R & 0xff)
+            palette[level] = 0xff << 24 | level << 16 | level << 8 | level;
+        }
+
+        return palette;
+    }
+
+    //Empties the window. The pixel buffer is kept (and cleared)
+    public void reset(){
+        appended = 0;
+        minHead = minTail = maxHead = maxTail = 0;
+        min = Float.POSITIVE_INFINITY;
+        max = Float.NEGATIVE_INFINITY;
+        Arrays.fill(pixels, palette[0]);
+    }
+
+    public void append(float[][] columns, int columnCount){
+        for(int k=0; k<columnCount; k++){
+            append(columns[k], 0);
+        }
+    }
+
+    //Appends the first rowCount rows of a matrix, each as a column of the spectrogram
+    public void append(FloatMatrix columns, int rowCount){
+        for(int k=0; k<rowCount; k++){
+            append(columns.getData(), columns.getRowOffset(k));
+        }
+    }
+
+    public void append(float[] column){
+        append(column, 0);
+    }
+
+    //Appends column[offset, offset + binCount) as the newest row of the window, dropping the oldest row if the window is full
+    public void append(float[] column, int offset){
+        int row = (int)(appended % height);
+        long expired = appended - height; //the row being overwritten, if any
+        if(minHead < minTail && minQueue[(int)(minHead % height)] == expired){
+            minHead++;
+        }
+        if(maxHead < maxTail && maxQueue[(int)(maxHead % height)] == expired){
+            maxHead++;
+        }
+
+        int rowStart = row * width;
+        float rowMin = Float.POSITIVE_INFINITY;
+        float rowMax = Float.NEGATIVE_INFINITY;
+        for(int j=0; j<width; j++){
+            float value = column[offset + j];
+            values[rowStart + j] = value;
+            rowMin = Math.min(rowMin, value);
+            rowMax = Math.max(rowMax, value);
+        }
+        rowMins[row] = rowMin;
+        rowMaxs[row] = rowMax;
+
+        while(minHead < minTail && rowMins[(int)(minQueue[(int)((minTail - 1) % height)] % height)] >= rowMin){
+            minTail--;
+        }
+        minQueue[(int)(minTail++ % height)] = appended;
+        while(maxHead < maxTail && rowMaxs[(int)(maxQueue[(int)((maxTail - 1) % height)] % height)] <= rowMax){
+            maxTail--;
+        }
+        maxQueue[(int)(maxTail++ % height)] = appended;
+        appended++;
+
+        float windowMin = rowMins[(int)(minQueue[(int)(minHead % height)] % height)];
+        float windowMax = rowMaxs[(int)(maxQueue[(int)(maxHead % height)] % height)];
+        if(windowMin != min || windowMax != max){
+            min = windowMin;
+            max = windowMax;
+            recolorCount++;
+            for(int r=0; r<getRowCount(); r++){
+                colorRow(r);
+            }
+        }else{
+            colorRow(row);
+        }
+    }
+
+    //The pixel ring buffer (row-major, width pixels per row). Row getOldestRow() is the top of the image, and the rows wrap around the end of the buffer
+    public int[] getPixels(){
+        return pixels;
+    }
+
+    //The ring index of the oldest row in the window (the top of the image)
+    public int getOldestRow(){
+        return appended < height? 0 : (int)(appended % height);
+    }
+
+    //Copies the image into output (of at least width * height pixels), from the oldest row to the newest one
+    public int[] copyPixels(int[] output){
+        int oldest = getOldestRow();
+        int topRows = height - oldest;
+        System.arraycopy(pixels, oldest * width, output, 0, topRows * width);
+        System.arraycopy(pixels, 0, output, topRows * width, oldest * width);
+        return output;
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    //The number of rows filled so far (the window length, once enough columns were appended)
+    public int getRowCount(){
+        return (int)Math.min(appended, height);
+    }
+
+    public float getMin(){
+        return min;
+    }
+
+    public float getMax(){
+        return max;
+    }
+
+    //The number of times all rows were recolored, since the window min/max changed
+    public long getRecolorCount(){
+        return recolorCount;
+    }
+
+    private void colorRow(int row){
+        int rowStart = row * width;
+        float scale = max > min? 255.0f / (max - min) : 0.0f;
+        for(int j=0; j<width; j++){
+            int level = (int)((values[rowStart + j] - min) * scale);
+            pixels[rowStart + j] = palette[level < 0? 0 : level > 255? 255 : level];
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.yonavox.transforms;
+
+import org.junit.Test;
+import org.yonavox.util.Benchmarks;
+import org.yonavox.util.Constants;
+import org.yonavox.util.FloatMatrix;
+import org.yonavox.util.LatencyHistogram;
+import org.yonavox.util.MetricsRegistry;
+import org.yonavox.util.TestSignals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BatchPreprocessorTest {
+    private static final int CLIP_LENGTH = Constants.DOWNSAMPLE_COEFFICIENT * Constants.SPECTROGRAM_TIMESTAMPS;
+
+    private static List<float[]> makeClips(int count){
+        Random random = new Random(21);
+        List<float[]> clips = new ArrayList<>();
+        for(int c=0; c<count; c++){
+            int length = CLIP_LENGTH - random.nextInt(20000);
+            double frequency = 0.01 + 0.05 * random.nextDouble();
+            clips.add(TestSignals.makeSignal(length, 0.1f, frequency, 0.01f, random.nextLong()));
+        }
+
+        return clips;
+    }
+
+    @Test
+    public void batchMatchesSequentialPipeline() {
+        List<float[]> clips = makeClips(10);
+        Downsampler downsampler = PolyphaseDecimator.build(Constants.SAMPLE_RATE, Constants.CUTOFF_FREQUENCY, Constants.DOWNSAMPLE_COEFFICIENT, Constants.DECIMATOR_TAPS);
+        SpectrogramMaker spectroMaker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, true);
+        MelScaleConverter melScaleConverter = MelScaleConverter.build(Constants.DOWNSAMPLE_RATE, Constants.FRAME_LENGTH, Constants.MEL_BINS, Constants.LOWER_EDGE_HERTZ, Constants.UPPER_EDGE_HERTZ, Constants.FAST_LOG_BITS);
+        LogMelExtractor logMelExtractor = LogMelExtractor.build(spectroMaker, melScaleConverter);
+
+        BatchPreprocessor batchPreprocessor = BatchPreprocessor.build(3, CLIP_LENGTH);
+        LatencyHistogram preprocessLatency = MetricsRegistry.getGlobal().histogram(MetricsRegistry.PREPROCESS);
+        long preprocessedBefore = preprocessLatency.getCount();
+        try {
+            List<FloatMatrix> actual = batchPreprocessor.process(clips).getFeatures();
+            assertEquals(clips.size(), actual.size());
+            assertEquals(clips.size(), preprocessLatency.getCount() - preprocessedBefore);
+            for(int c=0; c<clips.size(); c++){
+                FloatMatrix expected = logMelExtractor.extract(downsampler.apply(clips.get(c)));
+                assertEquals(expected.getRows(), actual.get(c).getRows());
+                for(int k=0; k<expected.getRows(); k++){
+                    assertArrayEquals("clip " + c + ", frame " + k, expected.copyRow(k), actual.get(c).copyRow(k), 1e-3f);
+                }
+            }
+        } finally {
+            batchPreprocessor.shutdown();
+            spectroMaker.shutdown();
+        }
+    }
+
+    //Reports the throughput of a single worker against a worker per core
+    @Test
+    public void benchmarkThroughputAcrossCores() {
+        Benchmarks.assumeEnabled();
+        List<float[]> clips = makeClips(24);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for(int threadCount : new int[] {1, cores}){
+            BatchPreprocessor batchPreprocessor = BatchPreprocessor.build(threadCount, CLIP_LENGTH);
+            try {
+                batchPreprocessor.process(clips); //warm up
+                double clipsPerSecond = batchPreprocessor.process(clips).getClipsPerSecond();
+                System.out.println(threadCount + " worker(s): " + (int)clipsPerSecond + " clips/sec");
+            } finally {
+                batchPreprocessor.shutdown();
+            }
+        }
+    }
+}
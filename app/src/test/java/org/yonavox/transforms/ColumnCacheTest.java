@@ -0,0 +1,27 @@
+package org.yonavox.transforms;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ColumnCacheTest {
+    @Test
+    public void evictsLeastRecentlyUsedColumn() {
+        ColumnCache columnCache = ColumnCache.build(2, 3);
+        float[] output = new float[3];
+        columnCache.put(0, new float[] {1, 2, 3});
+        columnCache.put(128, new float[] {4, 5, 6});
+        assertTrue(columnCache.get(0, output)); //position 128 is now the least recently used
+        columnCache.put(256, new float[] {7, 8, 9});
+
+        assertFalse(columnCache.get(128, output));
+        assertTrue(columnCache.get(256, output));
+        assertArrayEquals(new float[] {7, 8, 9}, output, 0.0f);
+        assertTrue(columnCache.get(0, output));
+        assertArrayEquals(new float[] {1, 2, 3}, output, 0.0f);
+
+        assertEquals(2, columnCache.size());
+        assertEquals(3, columnCache.getHitCount());
+        assertEquals(1, columnCache.getMissCount());
+    }
+}
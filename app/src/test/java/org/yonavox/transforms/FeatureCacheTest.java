@@ -0,0 +1,91 @@
+package org.yonavox.transforms;
+
+import org.junit.Test;
+import org.yonavox.util.FloatMatrix;
+import org.yonavox.util.MetricsRegistry;
+import org.yonavox.util.TestSignals;
+
+import java.util.Arrays;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FeatureCacheTest {
+    @Test
+    public void repeatedSnapshotsSkipPreprocessing() {
+        MetricsRegistry metrics = MetricsRegistry.build();
+        FeatureCache featureCache = FeatureCache.build(2, metrics);
+        AtomicInteger computations = new AtomicInteger();
+        short[] silence = new short[1000];
+        short[] speech = new short[1000];
+        speech[500] = 1234;
+
+        //Snapshots of unknown position are keyed by their samples
+        FloatMatrix features = featureCache.get(silence, -1, () -> FloatMatrix.wrap(new float[] {computations.incrementAndGet()}, 1, 1));
+        assertSame(features, featureCache.get(silence.clone(), -1, () -> FloatMatrix.wrap(new float[] {computations.incrementAndGet()}, 1, 1)));
+        assertNotSame(features, featureCache.get(speech, -1, () -> FloatMatrix.wrap(new float[] {computations.incrementAndGet()}, 1, 1)));
+
+        //Snapshots of known position are keyed by their position range, without hashing
+        FloatMatrix positioned = featureCache.get(speech, 44100, () -> FloatMatrix.wrap(new float[] {computations.incrementAndGet()}, 1, 1));
+        assertSame(positioned, featureCache.get(speech, 44100, () -> FloatMatrix.wrap(new float[] {computations.incrementAndGet()}, 1, 1)));
+        assertNotSame(positioned, featureCache.get(speech, 46100, () -> FloatMatrix.wrap(new float[] {computations.incrementAndGet()}, 1, 1)));
+
+        assertEquals(4, computations.get());
+        assertEquals(2, featureCache.getHitCount());
+        assertEquals(4, featureCache.getMissCount());
+        assertEquals(2, featureCache.size());
+        assertEquals(2L, (long)metrics.getCounts().get(MetricsRegistry.FEATURE_HITS));
+        assertEquals(featureCache.getSavedNanos(), (long)metrics.getCounts().get(MetricsRegistry.FEATURE_SAVED_NANOS));
+    }
+
+    //Pressing play again during silence snapshots a later range of the stream, in which only quiet samples were appended
+    @Test
+    public void laterSnapshotsEndingInSilenceReuseTheLatestFeatures() {
+        MetricsRegistry metrics = MetricsRegistry.build();
+        FeatureCache featureCache = FeatureCache.build(2, metrics);
+        AtomicInteger computations = new AtomicInteger();
+        short[] stream = new short[4500];
+        for(int i=0; i<stream.length; i++){
+            stream[i] = (short)(i % 2 == 0? 8 : -8); //recorder noise, well within the speech amplitude
+        }
+        System.arraycopy(TestSignals.makeRecording(1000, 3000, 0.02, 300, 11), 0, stream, 1000, 1000);
+        stream[1000] = 3000; //the utterance spans exactly [1000, 2000) of the stream
+        stream[1999] = 3000;
+
+        FloatMatrix features = featureCache.get(Arrays.copyOfRange(stream, 0, 2500), 10000, () -> FloatMatrix.wrap(new float[] {computations.incrementAndGet()}, 1, 1));
+        assertSame(features, featureCache.get(Arrays.copyOfRange(stream, 500, 3000), 10500, () -> FloatMatrix.wrap(new float[] {computations.incrementAndGet()}, 1, 1)));
+        assertSame(features, featureCache.get(Arrays.copyOfRange(stream, 1000, 3500), 11000, () -> FloatMatrix.wrap(new float[] {computations.incrementAndGet()}, 1, 1)));
+        assertEquals(1, computations.get());
+        assertEquals(2, featureCache.getHitCount());
+        assertEquals(2L, (long)metrics.getCounts().get(MetricsRegistry.FEATURE_HITS));
+
+        //Once the start of the utterance scrolled out of the snapshot, the features no longer describe it, even though only silence was appended
+        FloatMatrix scrolled = featureCache.get(Arrays.copyOfRange(stream, 1500, 4000), 11500, () -> FloatMatrix.wrap(new float[] {computations.incrementAndGet()}, 1, 1));
+        assertNotSame(features, scrolled);
+        assertEquals(2, computations.get());
+
+        //A single loud sample appended since the latest features were computed means they no longer hold the whole utterance
+        stream[4499] = 3000;
+        assertNotSame(scrolled, featureCache.get(Arrays.copyOfRange(stream, 1500, 4500), 11500, () -> FloatMatrix.wrap(new float[] {computations.incrementAndGet()}, 1, 1)));
+        assertEquals(3, computations.get());
+
+        //Recordings of unknown position only match the exact same samples
+        assertNotSame(features, featureCache.get(Arrays.copyOfRange(stream, 1000, 3500), -1, () -> FloatMatrix.wrap(new float[] {computations.incrementAndGet()}, 1, 1)));
+        assertEquals(4, computations.get());
+        assertEquals(4, featureCache.getMissCount());
+    }
+
+    @Test
+    public void hashDependsOnEverySample() {
+        short[] samples = new short[93320];
+        long hash = FeatureCache.hash(samples);
+        for(int i : new int[] {0, 1, 2, 3, 4, 93317, 93318, 93319}){
+            samples[i] = 1;
+            assertNotEquals("sample " + i, hash, FeatureCache.hash(samples));
+            samples[i] = 0;
+        }
+        assertNotEquals(FeatureCache.hash(new short[3]), FeatureCache.hash(new short[4]));
+        assertNotEquals(FeatureCache.hash(new float[] {1, 2, 3}), FeatureCache.hash(new float[] {1, 2, 4}));
+    }
+}
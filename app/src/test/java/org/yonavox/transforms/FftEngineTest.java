@@ -0,0 +1,83 @@
+package org.yonavox.transforms;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+//Cross-validates every FftEngine against the radix-2 reference implementation
+public class FftEngineTest {
+    private static final float TOLERANCE = 1e-4f; //relative to the largest coefficient of the frame
+
+    private static FftEngine[] makeEngines(int length){
+        return new FftEngine[] {
+            Radix4FftEngine.build(length)
+        };
+    }
+
+    //Frames are interleaved complex numbers
+    private static float[] makeFrame(int length, long seed){
+        Random random = new Random(seed);
+        float[] frame = new float[2 * length];
+        for(int i=0; i<frame.length; i++){
+            frame[i] = (float)random.nextGaussian();
+        }
+
+        return frame;
+    }
+
+    private static float[] runEngine(FftEngine engine, float[] frame){
+        int[] shuffledIndices = engine.getShuffledIndices();
+        float[] shuffledFrame = new float[frame.length];
+        for(int i=0; i<shuffledIndices.length; i++){
+            shuffledFrame[2*i] = frame[2*shuffledIndices[i]];
+            shuffledFrame[2*i + 1] = frame[2*shuffledIndices[i] + 1];
+        }
+
+        engine.transform(shuffledFrame, engine.createScratch());
+        return shuffledFrame;
+    }
+
+    @Test
+    public void referenceMatchesNaiveDft() {
+        int length = 64;
+        float[] frame = makeFrame(length, 1);
+        float[] actual = runEngine(Radix2FftEngine.build(length), frame);
+
+        for(int k=0; k<length; k++){
+            double real = 0;
+            double imag = 0;
+            for(int n=0; n<length; n++){
+                double angle = -2 * Math.PI * k * n / length;
+                real += frame[2*n] * Math.cos(angle) - frame[2*n + 1] * Math.sin(angle);
+                imag += frame[2*n] * Math.sin(angle) + frame[2*n + 1] * Math.cos(angle);
+            }
+
+            assertEquals(real, actual[2*k], 1e-3);
+            assertEquals(imag, actual[2*k + 1], 1e-3);
+        }
+    }
+
+    @Test
+    public void enginesMatchReference() {
+        for(int length=2; length<=2048; length*=2){
+            float[] frame = makeFrame(length, length);
+            float[] expected = runEngine(Radix2FftEngine.build(length), frame);
+
+            float scale = 0;
+            for(float coefficient : expected){
+                scale = Math.max(scale, Math.abs(coefficient));
+            }
+
+            for(FftEngine engine : makeEngines(length)){
+                assertEquals(length, engine.getLength());
+                float[] actual = runEngine(engine, frame);
+                for(int i=0; i<expected.length; i++){
+                    String message = engine.getClass().getSimpleName() + " of length " + length + ", coefficient " + i/2;
+                    assertEquals(message, expected[i], actual[i], TOLERANCE * scale);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.yonavox.transforms;
+
+import org.junit.Test;
+import org.yonavox.util.Constants;
+import org.yonavox.util.TestSignals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LowPassFilterTest {
+    private static LowPassFilter makeFilter(){
+        return LowPassFilter.build(Constants.SAMPLE_RATE, Constants.CUTOFF_FREQUENCY, Constants.FILTER_ORDER);
+    }
+
+    @Test
+    public void shorterSignalsOnlyProduceTheirValidSamples() {
+        float[] signal = TestSignals.makeSignal(Constants.DOWNSAMPLE_COEFFICIENT * Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.01, 0.01f, 1);
+        LowPassFilter filter = makeFilter();
+        float[] full = filter.apply(signal);
+        assertEquals(Constants.SPECTROGRAM_TIMESTAMPS, full.length);
+
+        //The filter is causal, so filtering a prefix (on the same, reused filter) yields a prefix of the full output
+        for(int length : new int[] {1, 12345, 50001}){
+            float[] prefix = filter.apply(Arrays.copyOf(signal, length));
+            int expectedLength = (length + Constants.DOWNSAMPLE_COEFFICIENT - 1) / Constants.DOWNSAMPLE_COEFFICIENT;
+            assertArrayEquals(Arrays.copyOf(full, expectedLength), prefix, 0.0f);
+        }
+    }
+
+    @Test
+    public void streamMatchesWholeSignal() {
+        float[] signal = TestSignals.makeSignal(Constants.DOWNSAMPLE_COEFFICIENT * Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.01, 0.01f, 2);
+        LowPassFilter filter = makeFilter();
+        float[] expected = filter.apply(signal);
+
+        //Feed the stream uneven chunks (including empty ones and ones shorter than the decimation factor) into a single output array
+        float[] actual = new float[expected.length];
+        Random random = new Random(6);
+        int pushed = 0;
+        int written = 0;
+        while(pushed < signal.length){
+            int chunk = Math.min(signal.length - pushed, random.nextInt(random.nextBoolean()? 7 : 3000));
+            int expectedWritten = filter.getProcessedLength(chunk);
+            assertEquals(expectedWritten, filter.process(signal, pushed, chunk, actual, written));
+            pushed += chunk;
+            written += expectedWritten;
+        }
+
+        assertEquals(expected.length, written);
+        assertArrayEquals(expected, actual, 0.0f);
+
+        //Once reset, the stream starts over
+        filter.resetStream();
+        assertArrayEquals(Arrays.copyOf(expected, 10), filter.process(signal, 0, 46), 0.0f);
+    }
+
+    //16 bit samples are scaled inside the filters, which must match filtering the same samples converted to floats up-front
+    @Test
+    public void shortInputMatchesScaledFloatInput() {
+        Random random = new Random(12);
+        short[] pcm = new short[Constants.DOWNSAMPLE_COEFFICIENT * Constants.SPECTROGRAM_TIMESTAMPS];
+        float[] scaled = new float[pcm.length];
+        for(int i=0; i<pcm.length; i++){
+            pcm[i] = (short)(3000 * Math.sin(0.01 * i) + 500 * random.nextGaussian());
+            scaled[i] = pcm[i] * Constants.PCM_16BIT_SCALE;
+        }
+
+        LowPassFilter filter = makeFilter();
+        ParallelLowPassFilter parallelFilter = ParallelLowPassFilter.build(filter, 1e-5f);
+        Downsampler[] downsamplers = {
+            filter,
+            PolyphaseDecimator.build(Constants.SAMPLE_RATE, Constants.CUTOFF_FREQUENCY, Constants.DOWNSAMPLE_COEFFICIENT, Constants.DECIMATOR_TAPS),
+            parallelFilter
+        };
+
+        try {
+            for(Downsampler downsampler : downsamplers){
+                float[] expected = downsampler.apply(scaled, 3, scaled.length - 3);
+                float[] actual = downsampler.apply(pcm, 3, pcm.length - 3);
+                assertArrayEquals(downsampler.getClass().getSimpleName(), expected, actual, 1e-7f);
+            }
+        } finally {
+            parallelFilter.shutdown();
+        }
+    }
+
+    //The second-order sections must reproduce the analytic magnitude response of a (bilinear-transformed) Butterworth filter
+    @Test
+    public void sectionsMatchButterworthResponse() {
+        LowPassFilter filter = makeFilter();
+        double warpedCutoff = Math.tan(Math.PI * Constants.CUTOFF_FREQUENCY / Constants.SAMPLE_RATE);
+        for(double frequency : new double[] {500, 2000, 4000, 6000, 9000}){
+            float[] tone = new float[Constants.DOWNSAMPLE_COEFFICIENT * Constants.SPECTROGRAM_TIMESTAMPS];
+            for(int i=0; i<tone.length; i++){
+                tone[i] = (float)Math.sin(2 * Math.PI * frequency * i / Constants.SAMPLE_RATE);
+            }
+
+            //Measure the RMS of the downsampled output, once the filter has settled
+            float[] output = filter.apply(tone);
+            double sqSum = 0;
+            for(int i=2000; i<output.length; i++){
+                sqSum += output[i] * output[i];
+            }
+            double gain = 20 * Math.log10(Math.sqrt(sqSum / (output.length - 2000)) / Math.sqrt(0.5));
+
+            double warpedRatio = Math.tan(Math.PI * frequency / Constants.SAMPLE_RATE) / warpedCutoff;
+            double expectedGain = -10 * Math.log10(1 + Math.pow(warpedRatio, 2 * Constants.FILTER_ORDER));
+            assertEquals("at " + frequency + " Hz", expectedGain, gain, 0.05);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSignalsLongerThanCapacity() {
+        LowPassFilter filter = LowPassFilter.build(Constants.SAMPLE_RATE, Constants.CUTOFF_FREQUENCY, Constants.FILTER_ORDER, 1000);
+        filter.apply(new float[1001]);
+    }
+}
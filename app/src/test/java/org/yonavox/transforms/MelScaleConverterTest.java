@@ -0,0 +1,158 @@
+package org.yonavox.transforms;
+
+import org.junit.Test;
+import org.yonavox.util.AllocationCounter;
+import org.yonavox.util.Benchmarks;
+import org.yonavox.util.Constants;
+import org.yonavox.util.TestSignals;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MelScaleConverterTest {
+    private static final float TOLERANCE = 1e-2f; //in decibels
+
+    private static final SpectrogramMaker spectroMaker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, true);
+    private static final MelScaleConverter melScaleConverter = MelScaleConverter.build(
+        Constants.DOWNSAMPLE_RATE,
+        Constants.FRAME_LENGTH,
+        Constants.MEL_BINS,
+        Constants.LOWER_EDGE_HERTZ,
+        Constants.UPPER_EDGE_HERTZ
+    );
+
+    private static void assertDecibelsEqual(float[][] expected, float[][] actual){
+        assertEquals(expected.length, actual.length);
+        for(int k=0; k<expected.length; k++){
+            assertEquals(expected[k].length, actual[k].length);
+            for(int bin=0; bin<expected[k].length; bin++){
+                assertEquals("frame " + k + ", bin " + bin, expected[k][bin], actual[k][bin], TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void fusedExtractionMatchesThreeStagePipeline() {
+        float[] signal = TestSignals.makeChirp(Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.03, 0.00001, 0.01f, 17);
+        float[][] expected = melScaleConverter.convert(spectroMaker.transform(signal));
+        float[][] actual = LogMelExtractor.build(spectroMaker, melScaleConverter).extract(signal).toArray();
+
+        assertEquals(Constants.MEL_BINS, actual[0].length);
+        assertDecibelsEqual(expected, actual);
+    }
+
+    @Test
+    public void conversionDoesNotAllocate() {
+        float[][] spectrogram = spectroMaker.transform(TestSignals.makeChirp(Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.03, 0.00001, 0.01f, 29));
+        float[][] expected = melScaleConverter.convert(spectrogram);
+        float[][] output = new float[spectrogram.length][Constants.MEL_BINS];
+        float[] flatOutput = new float[spectrogram.length * Constants.MEL_BINS];
+        Runnable conversions = () -> {
+            melScaleConverter.convert(spectrogram, output);
+            melScaleConverter.convert(spectrogram, flatOutput);
+        };
+
+        //Warm up, so that class loading and JIT compilation do not count as allocations
+        for(int i=0; i<20; i++){
+            conversions.run();
+        }
+
+        assertEquals(0, AllocationCounter.measure(conversions));
+        assertDecibelsEqual(expected, output);
+        for(int k=0; k<expected.length; k++){
+            assertArrayEquals(expected[k], Arrays.copyOfRange(flatOutput, k * Constants.MEL_BINS, (k+1) * Constants.MEL_BINS), 0.0f);
+        }
+
+        //Recycled rows are reused by the next conversion
+        melScaleConverter.recycle(expected);
+        float[][] reused = melScaleConverter.convert(spectrogram);
+        assertSame(expected[0], reused[0]);
+    }
+
+    @Test
+    public void cachedExtractionReusesOverlappingFrames() {
+        float[] stream = TestSignals.makeChirp(2 * Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.03, 0.00001, 0.01f, 23);
+        LogMelExtractor uncached = LogMelExtractor.build(spectroMaker, melScaleConverter);
+        ColumnCache columnCache = ColumnCache.build(Constants.CACHED_COLUMNS, Constants.MEL_BINS);
+        LogMelExtractor cached = LogMelExtractor.build(spectroMaker, melScaleConverter, columnCache);
+        int hopCount = spectroMaker.getHopCount(Constants.SPECTROGRAM_TIMESTAMPS);
+        int firstCachedFrame = (Constants.FRAME_LENGTH / 2 + Constants.HOP_LENGTH - 1) / Constants.HOP_LENGTH;
+
+        //The second snapshot starts 10 hops later, so all but its reflected frames and its last 10 frames were seen by the first snapshot
+        int shift = 10 * Constants.HOP_LENGTH;
+        for(int start : new int[] {3000, 3000 + shift}){
+            float[] snapshot = Arrays.copyOfRange(stream, start, start + Constants.SPECTROGRAM_TIMESTAMPS);
+            assertDecibelsEqual(uncached.extract(snapshot).toArray(), cached.extract(snapshot, start).toArray());
+        }
+
+        assertEquals(hopCount - firstCachedFrame - 10, columnCache.getHitCount());
+        assertEquals(hopCount - firstCachedFrame + 10, columnCache.getMissCount());
+    }
+
+    @Test
+    public void fastLogConversionStaysWithinErrorBound() {
+        float[][] spectrogram = spectroMaker.transform(TestSignals.makeChirp(Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.03, 0.00001, 0.01f, 31));
+        float[][] expected = melScaleConverter.convert(spectrogram);
+        for(int fastLogBits : new int[] {6, Constants.FAST_LOG_BITS, 14}){
+            MelScaleConverter fastConverter = MelScaleConverter.build(Constants.DOWNSAMPLE_RATE, Constants.FRAME_LENGTH, Constants.MEL_BINS, Constants.LOWER_EDGE_HERTZ, Constants.UPPER_EDGE_HERTZ, fastLogBits);
+            float[][] actual = fastConverter.convert(spectrogram);
+            double maxError = fastConverter.getMaxDecibelError() + 1e-4; //plus the float rounding of decibels in the tens
+            for(int k=0; k<expected.length; k++){
+                assertArrayEquals("frame " + k + " (" + fastLogBits + " bits)", expected[k], actual[k], (float)maxError);
+            }
+        }
+    }
+
+    //Compares the exact decibel conversion with the fast-log mode, over whole spectrograms
+    @Test
+    public void benchmarkFastLogAgainstMathLog10() {
+        Benchmarks.assumeEnabled();
+        float[][] spectrogram = spectroMaker.transform(TestSignals.makeChirp(Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.03, 0.00001, 0.01f, 37));
+        float[][] output = new float[spectrogram.length][Constants.MEL_BINS];
+        MelScaleConverter fastConverter = MelScaleConverter.build(Constants.DOWNSAMPLE_RATE, Constants.FRAME_LENGTH, Constants.MEL_BINS, Constants.LOWER_EDGE_HERTZ, Constants.UPPER_EDGE_HERTZ, Constants.FAST_LOG_BITS);
+        int rounds = 200;
+        for(MelScaleConverter converter : new MelScaleConverter[] {melScaleConverter, fastConverter}){
+            for(int i=0; i<rounds; i++){
+                converter.convert(spectrogram, output);
+            }
+
+            long start = System.nanoTime();
+            for(int i=0; i<rounds; i++){
+                converter.convert(spectrogram, output);
+            }
+            String mode = converter == fastConverter? "Fast log (" + Constants.FAST_LOG_BITS + " bits)" : "Math.log10";
+            System.out.println(mode + ": " + (System.nanoTime() - start) / (1000 * rounds) + " us per spectrogram");
+        }
+    }
+
+    @Test
+    public void sparseConversionMatchesDenseFilterBank() {
+        float[][] spectrogram = spectroMaker.transform(TestSignals.makeChirp(Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.03, 0.00001, 0.01f, 19));
+        float[][] filterBank = melScaleConverter.getFilterBank();
+
+        //The dense text-book computation: project onto every filter, square, convert to decibels and clip to the top 80 dB
+        float[][] expected = new float[spectrogram.length][filterBank.length];
+        float maxDecibel = -Float.MAX_VALUE;
+        for(int k=0; k<spectrogram.length; k++){
+            for(int binIdx=0; binIdx<filterBank.length; binIdx++){
+                double melValue = 0;
+                for(int j=0; j<spectrogram[k].length; j++){
+                    melValue += spectrogram[k][j] * filterBank[binIdx][j];
+                }
+
+                expected[k][binIdx] = (float)(10 * (Math.log10(melValue * melValue) - Math.log10(80)));
+                maxDecibel = Math.max(maxDecibel, expected[k][binIdx]);
+            }
+        }
+        for(float[] row : expected){
+            for(int binIdx=0; binIdx<row.length; binIdx++){
+                row[binIdx] = Math.max(row[binIdx], Math.max(-100 - (float)Math.log10(80), maxDecibel - 80));
+            }
+        }
+
+        float[][] actual = new float[spectrogram.length][Constants.MEL_BINS];
+        assertSame(actual, melScaleConverter.convert(spectrogram, actual));
+        assertDecibelsEqual(expected, actual);
+    }
+}
@@ -0,0 +1,77 @@
+package org.yonavox.transforms;
+
+import org.junit.Test;
+import org.yonavox.util.Benchmarks;
+import org.yonavox.util.Constants;
+import org.yonavox.util.TestSignals;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ParallelLowPassFilterTest {
+    private static final float ROUNDING_TOLERANCE = 1e-6f; //the sequential filter runs in float, so it is only accurate up to rounding
+
+    //Noise over a slow sine, at the original sample rate
+    private static float peak(float[] signal){
+        float peak = 0;
+        for(float sample : signal){
+            peak = Math.max(peak, Math.abs(sample));
+        }
+
+        return peak;
+    }
+
+    @Test
+    public void blocksStayWithinErrorBoundOfSequentialFilter() {
+        float[] signal = TestSignals.makeSignal(10 * Constants.SAMPLE_RATE, 0.5f, 0.002, 0.3f, 8);
+        LowPassFilter filter = LowPassFilter.build(Constants.SAMPLE_RATE, Constants.CUTOFF_FREQUENCY, Constants.FILTER_ORDER, signal.length);
+        float[] expected = filter.apply(signal);
+
+        //A pool with more threads than cores, so the signal is always split into several blocks
+        ForkJoinPool threadPool = new ForkJoinPool(8);
+        try {
+            int previousWarmup = Integer.MAX_VALUE;
+            for(float errorBound : new float[] {1e-6f, 1e-4f, 1e-2f}){
+                ParallelLowPassFilter parallelFilter = ParallelLowPassFilter.build(filter, errorBound, threadPool);
+                assertTrue(parallelFilter.getWarmupLength() <= previousWarmup);
+                previousWarmup = parallelFilter.getWarmupLength();
+
+                float[] actual = parallelFilter.apply(signal);
+                assertEquals(expected.length, actual.length);
+                float maxError = errorBound * peak(signal) + ROUNDING_TOLERANCE;
+                for(int i=0; i<expected.length; i++){
+                    assertEquals("sample " + i + " (error bound " + errorBound + ")", expected[i], actual[i], maxError);
+                }
+            }
+        } finally {
+            threadPool.shutdown();
+        }
+    }
+
+    //Compares the sequential filter with the parallel filter, on a minute-long recording
+    @Test
+    public void benchmarkAgainstSequentialFilter() {
+        Benchmarks.assumeEnabled();
+        float[] signal = TestSignals.makeSignal(60 * Constants.SAMPLE_RATE, 0.5f, 0.002, 0.3f, 9);
+        LowPassFilter filter = LowPassFilter.build(Constants.SAMPLE_RATE, Constants.CUTOFF_FREQUENCY, Constants.FILTER_ORDER, signal.length);
+        ParallelLowPassFilter parallelFilter = ParallelLowPassFilter.build(filter, 1e-5f);
+        int rounds = 10;
+        try {
+            for(Downsampler downsampler : new Downsampler[] {filter, parallelFilter}){
+                for(int i=0; i<rounds; i++){
+                    downsampler.apply(signal);
+                }
+
+                long start = System.nanoTime();
+                for(int i=0; i<rounds; i++){
+                    downsampler.apply(signal);
+                }
+                System.out.println(downsampler.getClass().getSimpleName() + ": " + (System.nanoTime() - start) / (1000000 * rounds) + " ms per minute of audio");
+            }
+            System.out.println("Warm-up of " + parallelFilter.getWarmupLength() + " samples, over " + Runtime.getRuntime().availableProcessors() + " cores");
+        } finally {
+            parallelFilter.shutdown();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.yonavox.transforms;
+
+import org.junit.Test;
+import org.yonavox.util.Benchmarks;
+import org.yonavox.util.Constants;
+import org.yonavox.util.FloatMatrix;
+import org.yonavox.util.TestSignals;
+
+import static org.junit.Assert.*;
+
+public class PipelinedPreprocessorTest {
+    private static void assertSameFeatures(FloatMatrix expected, FloatMatrix actual){
+        assertEquals(expected.getRows(), actual.getRows());
+        assertEquals(expected.getCols(), actual.getCols());
+        for(int k=0; k<expected.getRows(); k++){
+            assertArrayEquals("frame " + k, expected.copyRow(k), actual.copyRow(k), 1e-4f);
+        }
+    }
+
+    @Test
+    public void pipelinedStagesMatchSequentialStages() {
+        PreprocessingConfig config = PreprocessingConfig.build(16000, 2, 256, 64, 40, 8000);
+        short[] recording = TestSignals.makeRecording(7999, 3000, 0.02, 300, 9);
+        float[] floatRecording = new float[recording.length];
+        for(int i=0; i<recording.length; i++){
+            floatRecording[i] = recording[i] * Constants.PCM_16BIT_SCALE;
+        }
+
+        PreprocessingPipeline sequential = PreprocessingPipeline.build(config);
+        try {
+            for(int chunkLength : new int[] {1, 100, 333, 4000}){
+                PipelinedPreprocessor pipelined = PipelinedPreprocessor.build(PreprocessingPipeline.build(config), chunkLength, 2);
+                try {
+                    for(long offset : new long[] {-1, 0, 12345}){
+                        assertSameFeatures(sequential.preprocess(recording, offset), pipelined.preprocess(recording, offset));
+                        assertSameFeatures(sequential.preprocess(floatRecording, offset), pipelined.preprocess(floatRecording, offset));
+                    }
+                } finally {
+                    pipelined.shutdown();
+                }
+            }
+        } finally {
+            sequential.shutdown();
+        }
+    }
+
+    @Test
+    public void failedRecordingsDoNotBreakLaterOnes() {
+        PreprocessingConfig config = PreprocessingConfig.build(16000, 2, 256, 64, 40, 8000);
+        PipelinedPreprocessor pipelined = PipelinedPreprocessor.build(PreprocessingPipeline.build(config), 100, 1);
+        try {
+            short[] recording = TestSignals.makeRecording(8000, 3000, 0.02, 300, 4);
+            FloatMatrix expected = pipelined.preprocess(recording, -1);
+            try {
+                pipelined.preprocess(TestSignals.makeRecording(9000, 3000, 0.02, 300, 4), -1); //longer than the decimator fits
+                fail("Expected the filter stage to fail");
+            } catch (RuntimeException e) {
+                assertTrue(e.getCause().getCause() instanceof IllegalArgumentException);
+            }
+            assertSameFeatures(expected, pipelined.preprocess(recording, -1));
+        } finally {
+            pipelined.shutdown();
+        }
+    }
+
+    //Compares the wall-clock time of a recording through the sequential stages and through the pipelined stages
+    @Test
+    public void benchmarkPipelinedAgainstSequential() {
+        Benchmarks.assumeEnabled();
+        PreprocessingConfig config = PreprocessingConfig.build(
+            Constants.SAMPLE_RATE,
+            Constants.DOWNSAMPLE_COEFFICIENT,
+            Constants.FRAME_LENGTH,
+            Constants.HOP_LENGTH,
+            Constants.MEL_BINS,
+            Constants.DOWNSAMPLE_COEFFICIENT * Constants.SPECTROGRAM_TIMESTAMPS,
+            Constants.FAST_LOG_BITS,
+            0
+        );
+        short[] recording = TestSignals.makeRecording(config.getMaxClipLength(), 3000, 0.02, 300, 8);
+        PreprocessingPipeline sequential = PreprocessingPipeline.build(config);
+        PipelinedPreprocessor pipelined = PipelinedPreprocessor.build(PreprocessingPipeline.build(config));
+        try {
+            int rounds = 30;
+            for(int i=0; i<rounds; i++){
+                sequential.extract(sequential.downsample(recording, -1), -1);
+                pipelined.preprocess(recording, -1);
+            }
+
+            long start = System.nanoTime();
+            for(int i=0; i<rounds; i++){
+                sequential.extract(sequential.downsample(recording, -1), -1);
+            }
+            long sequentialNanos = (System.nanoTime() - start) / rounds;
+
+            start = System.nanoTime();
+            for(int i=0; i<rounds; i++){
+                pipelined.preprocess(recording, -1);
+            }
+            long pipelinedNanos = (System.nanoTime() - start) / rounds;
+            System.out.println("Sequential stages: " + sequentialNanos / 1000 + " us, pipelined stages: " + pipelinedNanos / 1000 + " us per recording, over " + Runtime.getRuntime().availableProcessors() + " cores");
+        } finally {
+            sequential.shutdown();
+            pipelined.shutdown();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.yonavox.transforms;
+
+import org.junit.Test;
+import org.yonavox.util.Benchmarks;
+import org.yonavox.util.Constants;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PolyphaseDecimatorTest {
+    private static final int SIGNAL_LENGTH = Constants.DOWNSAMPLE_COEFFICIENT * Constants.SPECTROGRAM_TIMESTAMPS;
+    private static final int SETTLED_SAMPLES = 2000; //output samples skipped before measuring, so the IIR filter has settled
+
+    private static PolyphaseDecimator makeDecimator(){
+        return PolyphaseDecimator.build(Constants.SAMPLE_RATE, Constants.CUTOFF_FREQUENCY, Constants.DOWNSAMPLE_COEFFICIENT, Constants.DECIMATOR_TAPS);
+    }
+
+    private static LowPassFilter makeFilter(){
+        return LowPassFilter.build(Constants.SAMPLE_RATE, Constants.CUTOFF_FREQUENCY, Constants.FILTER_ORDER);
+    }
+
+    //The gain (in decibels) of a pure tone, measured on the downsampled output
+    private static double measureGain(Downsampler downsampler, double frequency){
+        float[] tone = new float[SIGNAL_LENGTH];
+        for(int i=0; i<tone.length; i++){
+            tone[i] = (float)Math.sin(2 * Math.PI * frequency * i / Constants.SAMPLE_RATE);
+        }
+
+        float[] output = downsampler.apply(tone);
+        double sqSum = 0;
+        for(int i=SETTLED_SAMPLES; i<output.length; i++){
+            sqSum += output[i] * output[i];
+        }
+
+        double rms = Math.sqrt(sqSum / (output.length - SETTLED_SAMPLES));
+        return 20 * Math.log10(rms / Math.sqrt(0.5));
+    }
+
+    @Test
+    public void passbandMatchesIirFilter() {
+        Downsampler decimator = makeDecimator();
+        Downsampler filter = makeFilter();
+        for(double frequency : new double[] {100, 500, 1000, 2000, 3000}){
+            assertEquals("at " + frequency + " Hz", measureGain(filter, frequency), measureGain(decimator, frequency), 0.5);
+        }
+    }
+
+    @Test
+    public void stopbandIsAtLeastAsAttenuatedAsIirFilter() {
+        Downsampler decimator = makeDecimator();
+        Downsampler filter = makeFilter();
+        for(double frequency : new double[] {5000, 6000, 8000, 10000, 15000, 20000}){
+            //Once both are attenuated by over 60 dB, the leftovers are well below the noise floor of a recording
+            double decimatorGain = measureGain(decimator, frequency);
+            double filterGain = Math.max(-60, measureGain(filter, frequency));
+            assertTrue("at " + frequency + " Hz: " + decimatorGain + " dB, against " + filterGain + " dB", decimatorGain <= filterGain);
+        }
+    }
+
+    @Test
+    public void polyphaseBranchesMatchDirectConvolution() {
+        Random random = new Random(3);
+        float[] signal = new float[12345];
+        for(int i=0; i<signal.length; i++){
+            signal[i] = (float)random.nextGaussian();
+        }
+
+        PolyphaseDecimator decimator = makeDecimator();
+        float[] taps = decimator.getTaps();
+        float[] actual = decimator.apply(signal);
+        assertEquals((signal.length + Constants.DOWNSAMPLE_COEFFICIENT - 1) / Constants.DOWNSAMPLE_COEFFICIENT, actual.length);
+        for(int m=0; m<actual.length; m++){
+            double expected = 0;
+            for(int k=0; k<taps.length && k <= m * Constants.DOWNSAMPLE_COEFFICIENT; k++){
+                expected += taps[k] * signal[m * Constants.DOWNSAMPLE_COEFFICIENT - k];
+            }
+            assertEquals("sample " + m, expected, actual[m], 1e-5);
+        }
+    }
+
+    //Compares the polyphase decimator with the IIR filter it replaces in PreprocessUtils
+    @Test
+    public void benchmarkAgainstIirFilter() {
+        Benchmarks.assumeEnabled();
+        Random random = new Random(4);
+        float[] signal = new float[SIGNAL_LENGTH];
+        for(int i=0; i<signal.length; i++){
+            signal[i] = 0.1f * (float)random.nextGaussian();
+        }
+
+        int rounds = 30;
+        for(Downsampler downsampler : new Downsampler[] {makeFilter(), makeDecimator()}){
+            for(int i=0; i<rounds; i++){
+                downsampler.apply(signal);
+            }
+
+            long start = System.nanoTime();
+            for(int i=0; i<rounds; i++){
+                downsampler.apply(signal);
+            }
+            System.out.println(downsampler.getClass().getSimpleName() + ": " + (System.nanoTime() - start) / (1000 * rounds) + " us per recording");
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.yonavox.transforms;
+
+import org.junit.Test;
+import org.yonavox.util.Constants;
+import org.yonavox.util.MetricsRegistry;
+import org.yonavox.util.TestSignals;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class PreprocessingPipelineTest {
+    //A small pipeline, of the kind tests can build cheaply
+    private static final PreprocessingConfig smallConfig = PreprocessingConfig.build(16000, 2, 256, 64, 40, 8000);
+
+    @Test
+    public void defaultConfigMatchesConstants() {
+        PreprocessingConfig config = PreprocessingConfig.getDefault();
+        assertEquals(Constants.DOWNSAMPLE_RATE, config.getDownsampleRate());
+        assertEquals(Constants.CUTOFF_FREQUENCY, config.getCutoffFrequency());
+        assertEquals(Constants.DECIMATOR_TAPS, config.getDecimatorTaps());
+        assertEquals(Constants.UPPER_EDGE_HERTZ, config.getCutoffFrequency());
+        assertEquals(Constants.SPECTROGRAM_TIMESTAMPS, config.getMaxDownsampledLength());
+    }
+
+    @Test
+    public void pipelineMatchesItsStages() {
+        float[] signal = TestSignals.makeSignal(smallConfig.getMaxClipLength(), 0.2f, 0.03, 0.01f, 3);
+        Downsampler downsampler = PolyphaseDecimator.build(16000, 4000, 2, smallConfig.getDecimatorTaps(), signal.length);
+        SpectrogramMaker spectroMaker = SpectrogramMaker.build(256, 64, true, Radix4FftEngine.build(128), null, signal.length / 2);
+        MelScaleConverter melScaleConverter = MelScaleConverter.build(8000, 256, 40, 0, 4000);
+
+        MetricsRegistry metrics = MetricsRegistry.build();
+        PreprocessingPipeline pipeline = PreprocessingPipeline.build(smallConfig, null, metrics);
+        try {
+            float[][] expected = melScaleConverter.clip(melScaleConverter.convert(spectroMaker.transform(downsampler.apply(signal))));
+            float[][] actual = pipeline.preprocess(signal).toArray();
+            assertEquals(1, metrics.histogram(MetricsRegistry.LOW_PASS).getCount());
+            assertEquals(1, metrics.histogram(MetricsRegistry.LOG_MEL).getCount());
+            assertEquals(1, metrics.histogram(MetricsRegistry.PREPROCESS).getCount());
+            assertEquals(spectroMaker.getHopCount(signal.length / 2), actual.length);
+            for(int k=0; k<expected.length; k++){
+                assertArrayEquals("frame " + k, expected[k], actual[k], 1e-3f);
+            }
+        } finally {
+            pipeline.shutdown();
+            spectroMaker.shutdown();
+        }
+    }
+
+    //Pipelines with different configs run side by side, each producing the same features as it would on its own
+    @Test
+    public void pipelinesRunConcurrently() throws Exception {
+        PreprocessingConfig otherConfig = PreprocessingConfig.build(16000, 4, 128, 32, 20, 8000);
+        PreprocessingPipeline first = PreprocessingPipeline.build(smallConfig);
+        PreprocessingPipeline second = PreprocessingPipeline.build(otherConfig);
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            float[] signal = TestSignals.makeSignal(8000, 0.2f, 0.03, 0.01f, 5);
+            float[][] firstExpected = first.preprocess(signal).toArray();
+            float[][] secondExpected = second.preprocess(signal).toArray();
+
+            for(int round=0; round<5; round++){
+                Future<float[][]> firstActual = threads.submit(() -> first.preprocess(signal).toArray());
+                Future<float[][]> secondActual = threads.submit(() -> second.preprocess(signal).toArray());
+                assertArrayEquals(firstExpected, firstActual.get());
+                assertArrayEquals(secondExpected, secondActual.get());
+            }
+            assertEquals(40, firstExpected[0].length);
+            assertEquals(20, secondExpected[0].length);
+        } finally {
+            threads.shutdown();
+            first.shutdown();
+            second.shutdown();
+        }
+    }
+
+    /* Snapshots triggered at arbitrary samples of a stream still share their frames, and the cached columns match freshly computed ones
+     * Aligning the snapshot at sample 1 drops its last column, which is padded back so the model always gets the same number of columns*/
+    @Test
+    public void unalignedSnapshotsShareCachedColumns() {
+        PreprocessingConfig config = PreprocessingConfig.getDefault();
+        PreprocessingConfig uncachedConfig = PreprocessingConfig.build(
+            config.getSampleRate(),
+            config.getDownsampleCoefficient(),
+            config.getFrameLength(),
+            config.getHopLength(),
+            config.getMelBins(),
+            config.getMaxClipLength(),
+            config.getFastLogBits(),
+            0
+        );
+        PreprocessingPipeline cached = PreprocessingPipeline.build(config, null, MetricsRegistry.build());
+        PreprocessingPipeline uncached = PreprocessingPipeline.build(uncachedConfig, null, MetricsRegistry.build());
+        try {
+            int snapshotLength = config.getMaxClipLength();
+            short[] stream = TestSignals.makeRecording(2 * snapshotLength, 3000, 0.02, 300, 7);
+            for(int start : new int[] {1, 3001, 3001 + 20000}){
+                short[] snapshot = Arrays.copyOfRange(stream, start, start + snapshotLength);
+                float[][] expected = uncached.preprocess(snapshot, start).toArray();
+                float[][] actual = cached.preprocess(snapshot, start).toArray();
+                assertEquals(cached.getHopCount(snapshotLength), actual.length);
+                assertEquals(expected.length, actual.length);
+                for(int k=0; k<expected.length; k++){
+                    assertArrayEquals("frame " + k, expected[k], actual[k], 0.0f);
+                }
+            }
+
+            int alignedLength = cached.getDownsampler().getOutputLength(snapshotLength - cached.getAlignmentSkip(1));
+            assertEquals(cached.getHopCount(snapshotLength) - 1, cached.getSpectrogramMaker().getHopCount(alignedLength));
+            assertTrue(cached.getColumnCache().getHitCount() > 0);
+        } finally {
+            cached.shutdown();
+            uncached.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFramesThatAreNotAPowerOfTwo() {
+        PreprocessingConfig.build(16000, 2, 300, 64, 40, 8000);
+    }
+}
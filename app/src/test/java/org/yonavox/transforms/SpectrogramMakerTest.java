@@ -0,0 +1,242 @@
+package org.yonavox.transforms;
+
+import org.junit.Test;
+import org.yonavox.util.AllocationCounter;
+import org.yonavox.util.ArrayUtils;
+import org.yonavox.util.Benchmarks;
+import org.yonavox.util.Constants;
+import org.yonavox.util.TestSignals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class SpectrogramMakerTest {
+    private static final float TOLERANCE = 1e-4f; //relative to the magnitude of each bin
+
+    private static void assertSpectrogramEquals(float[][] expected, float[][] actual){
+        assertEquals(expected.length, actual.length);
+        for(int k=0; k<expected.length; k++){
+            assertEquals(expected[k].length, actual[k].length);
+            for(int bin=0; bin<expected[k].length; bin++){
+                float delta = TOLERANCE * Math.max(1.0f, Math.abs(expected[k][bin]));
+                assertEquals("frame " + k + ", bin " + bin, expected[k][bin], actual[k][bin], delta);
+            }
+        }
+    }
+
+    @Test
+    public void realInputMatchesComplexPath() {
+        float[] signal = TestSignals.makeSignal(Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.05, 0.01f, 42);
+        SpectrogramMaker complexMaker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, false);
+        SpectrogramMaker realMaker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, true);
+
+        float[][] expected = complexMaker.transform(signal);
+        float[][] actual = realMaker.transform(signal);
+
+        assertEquals(Constants.FRAME_LENGTH / 2 + 1, actual[0].length);
+        assertSpectrogramEquals(expected, actual);
+    }
+
+    @Test
+    public void fftEnginesProduceTheSameSpectrogram() {
+        float[] signal = TestSignals.makeSignal(Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.05, 0.01f, 7);
+        int halfLength = Constants.FRAME_LENGTH / 2;
+        SpectrogramMaker referenceMaker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, true, Radix2FftEngine.build(halfLength));
+        SpectrogramMaker radix4Maker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, true, Radix4FftEngine.build(halfLength));
+
+        assertSpectrogramEquals(referenceMaker.transform(signal), radix4Maker.transform(signal));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMismatchedEngineLength() {
+        SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, false, Radix4FftEngine.build(Constants.FRAME_LENGTH / 2));
+    }
+
+    @Test
+    public void shorterSignalsOnlyProduceTheirValidFrames() {
+        float[] signal = TestSignals.makeSignal(Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.05, 0.01f, 17);
+        SpectrogramMaker maker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, true);
+        float[][] full = maker.transform(signal);
+        assertEquals(maker.getHopCount(), full.length);
+
+        //Frames never reach the right padding, so the frames of a prefix are the first frames of the full signal
+        for(int length : new int[] {Constants.FRAME_LENGTH, 5000, Constants.SPECTROGRAM_TIMESTAMPS - 1}){
+            float[] prefix = Arrays.copyOf(signal, length);
+            float[][] actual = maker.transform(prefix);
+            assertEquals(1 + (length - Constants.FRAME_LENGTH) / Constants.HOP_LENGTH, actual.length);
+            assertSpectrogramEquals(Arrays.copyOf(full, actual.length), actual);
+            maker.recycle(actual);
+        }
+
+        assertEquals(0, maker.transform(new float[Constants.FRAME_LENGTH - 1]).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSignalsLongerThanCapacity() {
+        SpectrogramMaker maker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, true, Radix4FftEngine.build(Constants.FRAME_LENGTH / 2), null, 4096);
+        try {
+            maker.transform(new float[4097]);
+        } finally {
+            maker.shutdown();
+        }
+    }
+
+    @Test
+    public void frameLoopDoesNotAllocate() {
+        float[] paddedSignal = ArrayUtils.reflectivePad(TestSignals.makeSignal(Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.05, 0.01f, 3), Constants.FRAME_LENGTH / 2);
+        int hopCount = 1 + (Constants.SPECTROGRAM_TIMESTAMPS - Constants.FRAME_LENGTH) / Constants.HOP_LENGTH;
+
+        for(boolean realInput : new boolean[] {true, false}){
+            SpectrogramMaker maker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, realInput);
+            SpectrogramMaker.Workspace workspace = maker.createWorkspace();
+            float[][] spectrogram = new float[hopCount][Constants.FRAME_LENGTH / 2 + 1];
+            Runnable frameLoop = () -> {
+                for(int k=0; k<hopCount; k++){
+                    maker.transformFrame(paddedSignal, k * Constants.HOP_LENGTH, workspace, spectrogram[k]);
+                }
+            };
+
+            //Warm up, so that class loading and JIT compilation do not count as allocations
+            for(int i=0; i<20; i++){
+                frameLoop.run();
+            }
+
+            assertEquals(0, AllocationCounter.measure(frameLoop));
+        }
+    }
+
+    @Test
+    public void streamMatchesBatchTransform() {
+        float[] signal = TestSignals.makeSignal(Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.05, 0.01f, 11);
+        SpectrogramMaker maker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, true);
+        float[][] expected = maker.transform(signal);
+
+        //Push the signal in uneven chunks, polling whatever columns become available after every chunk
+        SpectrogramStream stream = SpectrogramStream.build(maker);
+        float[][] actual = new float[expected.length][maker.getBinCount()];
+        float[] column = new float[maker.getBinCount()];
+        Random random = new Random(5);
+        int pushed = 0;
+        while(pushed < signal.length){
+            int chunk = Math.min(signal.length - pushed, 1 + random.nextInt(700));
+            stream.push(signal, pushed, chunk);
+            pushed += chunk;
+
+            long frame;
+            while((frame = stream.pollColumn(column)) >= 0){
+                if(frame < actual.length){
+                    System.arraycopy(column, 0, actual[(int)frame], 0, column.length);
+                }
+            }
+
+            //Every frame that fits within the pushed samples must already be available
+            assertEquals(pushed <= Constants.FRAME_LENGTH / 2? 0 : 1 + (pushed - Constants.FRAME_LENGTH / 2) / Constants.HOP_LENGTH, stream.getNextFrame());
+        }
+
+        assertSpectrogramEquals(expected, actual);
+    }
+
+    @Test
+    public void concurrentTransformsDoNotInterfere() throws Exception {
+        SpectrogramMaker maker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, true);
+        int signalCount = 6;
+        float[][] signals = new float[signalCount][];
+        float[][][] expected = new float[signalCount][][];
+        for(int i=0; i<signalCount; i++){
+            signals[i] = TestSignals.makeSignal(Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.05, 0.01f, 100 + i);
+            expected[i] = maker.transform(signals[i]);
+        }
+
+        ExecutorService callers = Executors.newFixedThreadPool(signalCount);
+        try {
+            for(int round=0; round<5; round++){
+                List<Future<float[][]>> results = new ArrayList<>();
+                for(float[] signal : signals){
+                    results.add(callers.submit(() -> maker.transform(signal)));
+                }
+
+                for(int i=0; i<signalCount; i++){
+                    float[][] actual = results.get(i).get();
+                    assertSpectrogramEquals(expected[i], actual);
+                    maker.recycle(actual);
+                }
+            }
+        } finally {
+            callers.shutdown();
+        }
+    }
+
+    //Compares the work-stealing scheduler with the static partitioning it replaced (8 threads, one fixed range of frames each)
+    @Test
+    public void benchmarkWorkStealingAgainstFixedPartitioning() throws Exception {
+        Benchmarks.assumeEnabled();
+        int threadCount = 8;
+        int rounds = 50;
+        float[] signal = TestSignals.makeSignal(Constants.SPECTROGRAM_TIMESTAMPS, 0.1f, 0.05, 0.01f, 13);
+        float[] paddedSignal = ArrayUtils.reflectivePad(signal, Constants.FRAME_LENGTH / 2);
+        SpectrogramMaker maker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, true);
+        float[][] expected = maker.transform(signal);
+        float[][] spectrogram = new float[expected.length][maker.getBinCount()];
+
+        ExecutorService fixedPool = Executors.newFixedThreadPool(threadCount);
+        SpectrogramMaker.Workspace[] workspaces = new SpectrogramMaker.Workspace[threadCount];
+        for(int i=0; i<threadCount; i++){
+            workspaces[i] = maker.createWorkspace();
+        }
+
+        float[] kIndices = ArrayUtils.linspace(0, expected.length, threadCount + 1);
+        Runnable fixedPartitioning = () -> {
+            CountDownLatch latch = new CountDownLatch(threadCount);
+            for(int threadId=0; threadId<threadCount; threadId++){
+                int finalThreadId = threadId;
+                fixedPool.execute(() -> {
+                    for(int k=(int)kIndices[finalThreadId]; k<(int)kIndices[finalThreadId+1]; k++){
+                        maker.transformFrame(paddedSignal, k * Constants.HOP_LENGTH, workspaces[finalThreadId], spectrogram[k]);
+                    }
+                    latch.countDown();
+                });
+            }
+
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        };
+
+        try {
+            long fixedNanos = timeRounds(fixedPartitioning, rounds);
+            assertSpectrogramEquals(expected, spectrogram);
+            long stealingNanos = timeRounds(() -> maker.transform(signal, spectrogram), rounds);
+            assertSpectrogramEquals(expected, spectrogram);
+
+            System.out.println("Fixed partitioning: " + fixedNanos / (1000 * rounds) + " us per spectrogram");
+            System.out.println("Work stealing (" + Runtime.getRuntime().availableProcessors() + " cores): " + stealingNanos / (1000 * rounds) + " us per spectrogram");
+        } finally {
+            fixedPool.shutdown();
+            maker.shutdown();
+        }
+    }
+
+    //Runs the task {rounds} times after an equal number of warm-up rounds, returning the total time of the measured rounds
+    private static long timeRounds(Runnable task, int rounds){
+        for(int i=0; i<rounds; i++){
+            task.run();
+        }
+
+        long start = System.nanoTime();
+        for(int i=0; i<rounds; i++){
+            task.run();
+        }
+
+        return System.nanoTime() - start;
+    }
+}
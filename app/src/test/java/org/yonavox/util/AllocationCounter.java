@@ -0,0 +1,19 @@
+package org.yonavox.util;
+
+import java.lang.management.ManagementFactory;
+
+//Counts the bytes allocated on the heap by the current thread (only available on HotSpot-based JVMs, which is where unit tests run)
+public class AllocationCounter {
+    private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    public static long allocatedBytes(){
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    //Returns the number of bytes allocated while running the given task
+    public static long measure(Runnable task){
+        long before = allocatedBytes();
+        task.run();
+        return allocatedBytes() - before;
+    }
+}
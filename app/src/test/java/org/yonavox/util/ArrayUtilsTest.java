@@ -0,0 +1,13 @@
+package org.yonavox.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ArrayUtilsTest {
+    @Test
+    public void reflectivePadMirrorsBothEdges() {
+        float[] padded = ArrayUtils.reflectivePad(new float[] {1, 2, 3, 4, 5}, 2);
+        assertArrayEquals(new float[] {3, 2, 1, 2, 3, 4, 5, 4, 3}, padded, 0);
+    }
+}
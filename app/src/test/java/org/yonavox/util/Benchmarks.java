@@ -0,0 +1,13 @@
+package org.yonavox.util;
+
+import static org.junit.Assume.assumeTrue;
+
+//Benchmarks only run when the yonavox.benchmarks system property is set (e.g. ./gradlew test -Dyonavox.benchmarks=true), and are skipped otherwise
+public class Benchmarks {
+    public static final String PROPERTY = "yonavox.benchmarks";
+
+    //Skips the calling test, unless benchmarks were enabled
+    public static void assumeEnabled(){
+        assumeTrue("Benchmarks are disabled (set -D" + PROPERTY + "=true to run them)", Boolean.getBoolean(PROPERTY));
+    }
+}
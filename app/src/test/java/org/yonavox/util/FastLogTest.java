@@ -0,0 +1,39 @@
+package org.yonavox.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FastLogTest {
+    private static final double ROUNDING_TOLERANCE = 1e-5; //the float rounding of results up to about 45 in magnitude
+
+    //Checks the error bound over every positive finite float, sampled at a fixed stride of bit patterns (which covers every exponent and mantissa bucket)
+    @Test
+    public void errorBoundHoldsOverFullFloatRange() {
+        for(int tableBits : new int[] {4, 10, 16}){
+            FastLog fastLog = FastLog.build(tableBits);
+            double maxError = fastLog.getMaxError() + ROUNDING_TOLERANCE;
+            int maxBits = Float.floatToRawIntBits(Float.MAX_VALUE);
+            for(long bits=1; bits<=maxBits; bits+=997){
+                float x = Float.intBitsToFloat((int)bits);
+                assertEquals("log10(" + x + ") with " + tableBits + " bits", Math.log10(x), fastLog.log10(x), maxError);
+            }
+        }
+    }
+
+    @Test
+    public void boundIsTightAtBucketEdges() {
+        FastLog fastLog = FastLog.build(10);
+        float justBelowTwo = Math.nextDown(2.0f); //the last mantissa of the last bucket
+        assertEquals(Math.log10(1.0f), fastLog.log10(1.0f), fastLog.getMaxError() + ROUNDING_TOLERANCE);
+        assertEquals(Math.log10(justBelowTwo), fastLog.log10(justBelowTwo), fastLog.getMaxError() + ROUNDING_TOLERANCE);
+        assertTrue(Math.abs(Math.log10(1.0f) - fastLog.log10(1.0f)) > 0.9 * fastLog.getMaxError());
+    }
+
+    @Test
+    public void zeroAndNegativeNumbers() {
+        FastLog fastLog = FastLog.build(10);
+        assertEquals(Float.NEGATIVE_INFINITY, fastLog.log10(0.0f), 0.0f);
+        assertEquals(fastLog.log10(3.5f), fastLog.log10(-3.5f), 0.0f);
+    }
+}
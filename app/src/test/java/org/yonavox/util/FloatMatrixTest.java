@@ -0,0 +1,108 @@
+package org.yonavox.util;
+
+import org.junit.Test;
+import org.yonavox.transforms.LogMelExtractor;
+import org.yonavox.transforms.MelScaleConverter;
+import org.yonavox.transforms.SpectrogramMaker;
+
+import static org.junit.Assert.*;
+
+public class FloatMatrixTest {
+    @Test
+    public void paddedRowsAreSkipped() {
+        float[] data = {1, 2, -1, 3, 4, -1, 5, 6};
+        FloatMatrix matrix = FloatMatrix.wrap(data, 3, 2, 3);
+        assertFalse(matrix.isContiguous());
+        assertEquals(4, matrix.get(1, 1), 0);
+        assertArrayEquals(new float[] {1, 2, 3, 4, 5, 6}, matrix.getContiguousData(), 0);
+        assertArrayEquals(new float[] {5, 6}, matrix.toArray()[2], 0);
+
+        matrix.set(2, 0, 7);
+        assertEquals(7, data[6], 0);
+        assertEquals(7, ArrayUtils.max(matrix), 0);
+        assertEquals(1, ArrayUtils.min(matrix), 0);
+        assertArrayEquals(new float[] {1.5f, 3.5f, 6.5f}, ArrayUtils.meanOfRows(matrix), 0);
+        assertArrayEquals(new float[] {11 / 3.0f, 4}, ArrayUtils.meanOfCols(matrix), 1e-6f);
+
+        ArrayUtils.ipMaximum(matrix, 3.5f);
+        assertArrayEquals(new float[] {3.5f, 3.5f, -1, 3.5f, 4, -1, 7, 6}, data, 0);
+    }
+
+    @Test
+    public void contiguousMatricesShareTheirArray() {
+        float[][] rows = {{1, 2, 3}, {4, 5, 6}};
+        FloatMatrix matrix = FloatMatrix.fromArray(rows);
+        assertTrue(matrix.isContiguous());
+        assertSame(matrix.getData(), matrix.getContiguousData());
+        assertArrayEquals(rows, matrix.toArray());
+        assertEquals(1, matrix.getTopRows(1).getRows());
+        assertSame(matrix.getData(), matrix.getTopRows(1).getData());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsArraysTooShortForTheShape() {
+        FloatMatrix.wrap(new float[5], 2, 2, 4);
+    }
+
+    //The log-mel matrix already holds the flat model input, the same as flattening the rows of a float[][] spectrogram
+    @Test
+    public void logMelMatrixIsTheFlatModelInput() {
+        SpectrogramMaker spectroMaker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, true);
+        MelScaleConverter melScaleConverter = MelScaleConverter.build(Constants.DOWNSAMPLE_RATE, Constants.FRAME_LENGTH, Constants.MEL_BINS, Constants.LOWER_EDGE_HERTZ, Constants.UPPER_EDGE_HERTZ);
+        LogMelExtractor logMelExtractor = LogMelExtractor.build(spectroMaker, melScaleConverter);
+        try {
+            float[] signal = TestSignals.makeSignal(Constants.SPECTROGRAM_TIMESTAMPS, 0.3f, 0.05, 0.02f, 41);
+            float[][] rows = logMelExtractor.extract(signal, new float[spectroMaker.getHopCount(signal.length)][Constants.MEL_BINS]);
+            FloatMatrix matrix = logMelExtractor.extract(signal);
+
+            assertTrue(matrix.isContiguous());
+            assertEquals(rows.length, matrix.getRows());
+            assertArrayEquals(ArrayUtils.concat(rows), matrix.getContiguousData(), 0);
+            assertArrayEquals(ArrayUtils.concat(rows), melScaleConverter.convert(FloatMatrix.fromArray(spectroMaker.transform(signal))).getData(), 1e-3f);
+
+            //Rows may also be written into a padded matrix, leaving the padding untouched
+            FloatMatrix padded = FloatMatrix.build(rows.length, Constants.MEL_BINS + 3);
+            padded.fill(Float.NaN);
+            logMelExtractor.extract(signal, FloatMatrix.wrap(padded.getData(), rows.length, Constants.MEL_BINS, Constants.MEL_BINS + 3));
+            for(int k=0; k<rows.length; k++){
+                assertEquals(rows[k][Constants.MEL_BINS - 1], padded.get(k, Constants.MEL_BINS - 1), 0);
+                assertTrue(Float.isNaN(padded.get(k, Constants.MEL_BINS)));
+            }
+        } finally {
+            spectroMaker.shutdown();
+        }
+    }
+
+    //Compares extracting into a float[][] and flattening it (the former model input path) against extracting straight into a matrix
+    @Test
+    public void benchmarkMatrixAgainstFlattenedRows() {
+        Benchmarks.assumeEnabled();
+        SpectrogramMaker spectroMaker = SpectrogramMaker.build(Constants.FRAME_LENGTH, Constants.HOP_LENGTH, true);
+        MelScaleConverter melScaleConverter = MelScaleConverter.build(Constants.DOWNSAMPLE_RATE, Constants.FRAME_LENGTH, Constants.MEL_BINS, Constants.LOWER_EDGE_HERTZ, Constants.UPPER_EDGE_HERTZ, Constants.FAST_LOG_BITS);
+        LogMelExtractor logMelExtractor = LogMelExtractor.build(spectroMaker, melScaleConverter);
+        float[] signal = TestSignals.makeSignal(Constants.SPECTROGRAM_TIMESTAMPS, 0.3f, 0.05, 0.02f, 43);
+        int hopCount = spectroMaker.getHopCount(signal.length);
+        int rounds = 200;
+        try {
+            for(int round=0; round<2; round++){
+                long start = System.nanoTime();
+                for(int i=0; i<rounds; i++){
+                    ArrayUtils.concat(logMelExtractor.extract(signal, new float[hopCount][Constants.MEL_BINS]));
+                }
+                long rowsNanos = (System.nanoTime() - start) / rounds;
+
+                start = System.nanoTime();
+                for(int i=0; i<rounds; i++){
+                    logMelExtractor.extract(signal).getContiguousData();
+                }
+                long matrixNanos = (System.nanoTime() - start) / rounds;
+
+                if(round == 1){
+                    System.out.println("float[][] + concat: " + rowsNanos / 1000 + " us per spectrogram, FloatMatrix: " + matrixNanos / 1000 + " us per spectrogram");
+                }
+            }
+        } finally {
+            spectroMaker.shutdown();
+        }
+    }
+}
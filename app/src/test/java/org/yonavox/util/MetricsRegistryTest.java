@@ -0,0 +1,63 @@
+package org.yonavox.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+    @Test
+    public void bucketsCoverEveryLatency() {
+        for(long nanos : new long[] {0, 1, 3, 4, 7, 8, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE}){
+            int bucket = LatencyHistogram.getBucket(nanos);
+            assertTrue(nanos + " above its bucket", nanos <= LatencyHistogram.getBucketUpperBound(bucket));
+            assertTrue(nanos + " below its bucket", bucket == 0 || nanos > LatencyHistogram.getBucketUpperBound(bucket - 1));
+        }
+    }
+
+    //Percentiles of latencies 1..10000 us are within a bucket (25%) above the exact ones
+    @Test
+    public void percentilesAreWithinBucketError() {
+        LatencyHistogram histogram = LatencyHistogram.build("test");
+        for(int micros=10000; micros>=1; micros--){
+            histogram.record(micros * 1000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(5000500, snapshot.getMeanNanos());
+        assertEquals(10000000, snapshot.getMaxNanos());
+        long[][] expected = {{5000000, snapshot.getP50Nanos()}, {9500000, snapshot.getP95Nanos()}, {9900000, snapshot.getP99Nanos()}};
+        for(long[] percentile : expected){
+            assertTrue(percentile[1] + " is below " + percentile[0], percentile[1] >= percentile[0]);
+            assertTrue(percentile[1] + " is too far above " + percentile[0], percentile[1] <= 1.25 * percentile[0]);
+        }
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws InterruptedException {
+        MetricsRegistry metrics = MetricsRegistry.build();
+        List<Thread> threads = new ArrayList<>();
+        for(int t=0; t<4; t++){
+            threads.add(new Thread(() -> {
+                for(int i=0; i<10000; i++){
+                    metrics.histogram("latency").record(i);
+                    metrics.counter("events").increment();
+                }
+            }));
+        }
+        for(Thread thread : threads){
+            thread.start();
+        }
+        for(Thread thread : threads){
+            thread.join();
+        }
+
+        assertEquals(40000, metrics.histogram("latency").getSnapshot().getCount());
+        assertEquals(40000L, (long)metrics.getCounts().get("events"));
+        assertTrue(metrics.dump().contains("latency: count=40000"));
+        assertTrue(metrics.dump().contains("events: 40000"));
+    }
+}
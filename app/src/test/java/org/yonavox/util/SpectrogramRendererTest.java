@@ -0,0 +1,98 @@
+package org.yonavox.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpectrogramRendererTest {
+    private static float[][] makeColumns(int count, int binCount, long seed){
+        Random random = new Random(seed);
+        float[][] columns = new float[count][binCount];
+        for(int k=0; k<count; k++){
+            float loudness = 40.0f * (float)Math.sin(0.05 * k);
+            for(int j=0; j<binCount; j++){
+                columns[k][j] = loudness - 0.5f * j + 5.0f * (float)random.nextGaussian();
+            }
+        }
+
+        return columns;
+    }
+
+    //The original toImage: both passes over the window, then a gray level per value
+    private static int[] renderFromScratch(float[][] columns, int start, int end){
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for(int k=start; k<end; k++){
+            for(float value : columns[k]){
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+
+        int binCount = columns[0].length;
+        int[] palette = SpectrogramRenderer.createGrayscalePalette();
+        int[] pixels = new int[(end - start) * binCount];
+        float scale = 255.0f / (max - min);
+        for(int k=start; k<end; k++){
+            for(int j=0; j<binCount; j++){
+                pixels[(k - start) * binCount + j] = palette[(int)((columns[k][j] - min) * scale)];
+            }
+        }
+
+        return pixels;
+    }
+
+    @Test
+    public void scrollingWindowMatchesRenderingFromScratch() {
+        int binCount = Constants.MEL_BINS;
+        int windowLength = 50;
+        float[][] columns = makeColumns(400, binCount, 3);
+        SpectrogramRenderer renderer = SpectrogramRenderer.build(binCount, windowLength);
+        int[] actual = new int[binCount * windowLength];
+        for(int k=0; k<columns.length; k++){
+            renderer.append(columns[k]);
+            if(k + 1 >= windowLength){
+                int start = k + 1 - windowLength;
+                assertArrayEquals("window ending at column " + k, renderFromScratch(columns, start, k + 1), renderer.copyPixels(actual));
+            }
+        }
+
+        assertTrue(renderer.getRecolorCount() < columns.length);
+    }
+
+    @Test
+    public void appendingDoesNotAllocate() {
+        float[][] columns = makeColumns(1000, Constants.MEL_BINS, 5);
+        SpectrogramRenderer renderer = SpectrogramRenderer.build(Constants.MEL_BINS, 138);
+        Runnable appends = () -> renderer.append(columns, columns.length);
+        appends.run();
+
+        assertEquals(0, AllocationCounter.measure(appends));
+    }
+
+    //Compares appending a column to the renderer with rendering the whole window from scratch for every new column
+    @Test
+    public void benchmarkIncrementalAgainstFromScratch() {
+        Benchmarks.assumeEnabled();
+        int windowLength = 138;
+        float[][] columns = makeColumns(2000, Constants.MEL_BINS, 7);
+        SpectrogramRenderer renderer = SpectrogramRenderer.build(Constants.MEL_BINS, windowLength);
+        for(int round=0; round<2; round++){
+            long start = System.nanoTime();
+            renderer.append(columns, columns.length);
+            long incrementalNanos = (System.nanoTime() - start) / columns.length;
+
+            start = System.nanoTime();
+            for(int k=windowLength; k<columns.length; k++){
+                renderFromScratch(columns, k - windowLength, k);
+            }
+            long fromScratchNanos = (System.nanoTime() - start) / (columns.length - windowLength);
+
+            if(round == 1){
+                System.out.println("Incremental renderer: " + incrementalNanos / 1000.0 + " us per column (" + renderer.getRecolorCount() + " recolors), from scratch: " + fromScratchNanos / 1000.0 + " us per column");
+            }
+        }
+    }
+}
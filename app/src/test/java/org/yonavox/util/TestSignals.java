@@ -0,0 +1,32 @@
+package org.yonavox.util;
+
+import java.util.Random;
+
+//Deterministic test signals: a sine wave (frequency in radians per sample) plus Gaussian noise, seeded so that every run sees the same samples
+public class TestSignals {
+    public static float[] makeSignal(int length, float amplitude, double frequency, float noise, long seed){
+        return makeChirp(length, amplitude, frequency, 0, noise, seed);
+    }
+
+    //Same as makeSignal(), but the phase of sample i is frequency * i + chirpRate * i^2, so the frequency rises along the signal
+    public static float[] makeChirp(int length, float amplitude, double frequency, double chirpRate, float noise, long seed){
+        Random random = new Random(seed);
+        float[] signal = new float[length];
+        for(int i=0; i<length; i++){
+            signal[i] = amplitude * (float)Math.sin(frequency * i + chirpRate * i * i) + noise * (float)random.nextGaussian();
+        }
+
+        return signal;
+    }
+
+    //Same as makeSignal(), as 16 bit PCM samples (amplitude and noise are in PCM units)
+    public static short[] makeRecording(int length, int amplitude, double frequency, int noise, long seed){
+        Random random = new Random(seed);
+        short[] recording = new short[length];
+        for(int i=0; i<length; i++){
+            recording[i] = (short)(amplitude * Math.sin(frequency * i) + noise * random.nextGaussian());
+        }
+
+        return recording;
+    }
+}